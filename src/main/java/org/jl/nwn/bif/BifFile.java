@@ -1,26 +1,34 @@
 package org.jl.nwn.bif;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import java.util.Arrays;
 
+import org.jl.nwn.resource.ChannelInputStream;
+
 /**
  * Read only representation of a bif file.
  * <p>
  * A BIF contains mutliple resources (files). It does not contain information
  * about each resource's name, and therefore requires its {@link KetFile KEY file}.
+ * <p>
+ * The Variable Resource Table is read once when the file is opened, so
+ * resource positions and sizes are known without file access. All reads use
+ * absolute positions, a bif file can be read by many threads at once.
  */
 abstract class BifFile implements Closeable {
 
-    protected RandomAccessFile raf;
     protected File file;
     protected FileChannel fc;
     protected byte[] header;
@@ -33,17 +41,58 @@ abstract class BifFile implements Closeable {
      * file. Currently, this value is 20.
      */
     protected int variableResourceOffset;
+    /** Positions of the variable resources in this file, read from the Variable Resource Table. */
+    private int[] entryOffsets;
+    /** Sizes of the variable resources in this file, read from the Variable Resource Table. */
+    private int[] entrySizes;
+    /** Whole file mapped into memory, created on first use. */
+    private volatile ByteBuffer mapped;
 
-    protected BifFile(File f) throws IOException {
+    /**
+     * Opens a bif file and reads its Variable Resource Table.
+     *
+     * @param f bif file
+     * @param indexEntrySize size of one entry of the Variable Resource Table
+     * @param offsetPosition position of the resource offset in an entry of the
+     *        Variable Resource Table, the resource size follows the offset
+     */
+    protected BifFile(File f, int indexEntrySize, int offsetPosition) throws IOException {
         file = f;
-        raf = new RandomAccessFile(f, "r");
-        fc = raf.getChannel();
-        header = new byte[8];
-        raf.read(header);
-        //raf.seek( 0x08 );
-        size = readIntLE(raf);
-        fixedResourceCount = readIntLE(raf);
-        variableResourceOffset = readIntLE(raf);
+        fc = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        try {
+            final ByteBuffer bb = read(0, 20);
+            header = new byte[8];
+            bb.get(header);
+            size = bb.getInt();
+            fixedResourceCount = bb.getInt();
+            variableResourceOffset = bb.getInt();
+
+            if (size < 0 || (long) size * indexEntrySize > fc.size()) {
+                throw new IOException("Invalid number of resources in " + f + " : " + size);
+            }
+            final ByteBuffer table = read(variableResourceOffset, size * indexEntrySize);
+            entryOffsets = new int[size];
+            entrySizes = new int[size];
+            for (int i = 0; i < size; i++) {
+                final int p = i * indexEntrySize;
+                checkIndexEntry(table, p);
+                entryOffsets[i] = table.getInt(p + offsetPosition);
+                entrySizes[i] = table.getInt(p + offsetPosition + 4);
+            }
+        } catch (IOException ioex) {
+            fc.close();
+            throw ioex;
+        }
+    }
+
+    /**
+     * Called for every entry of the Variable Resource Table when the file is
+     * opened. Does nothing by default.
+     *
+     * @param table Variable Resource Table
+     * @param position position of the entry in the table
+     */
+    protected void checkIndexEntry(ByteBuffer table, int position) {
     }
 
     public File getFile(){
@@ -67,21 +116,79 @@ abstract class BifFile implements Closeable {
     @Override
     public void close() throws IOException {
         fc.close();
-        raf.close();
     }
 
-    public abstract InputStream getEntry(int idx) throws IOException;
+    /**
+     * Returns false if the file was closed, which also happens when a thread
+     * is interrupted while reading from the file.
+     */
+    boolean isOpen() {
+        return fc.isOpen();
+    }
+
+    public InputStream getEntry(int idx) throws IOException {
+        checkIndex(idx);
+        final long offset = getEntryOffset(idx);
+        return new ChannelInputStream(fc, offset, offset + entrySizes[idx]);
+    }
+
+    public int getEntrySize(int idx) {
+        checkIndex(idx);
+        return entrySizes[idx];
+    }
+
+    /** Reads an entry into a little endian buffer. */
+    public ByteBuffer readEntry(int idx) throws IOException {
+        checkIndex(idx);
+        return read(getEntryOffset(idx), entrySizes[idx]);
+    }
 
-    public abstract int getEntrySize(int idx);
+    /**
+     * Returns a read only little endian slice of the memory mapped file
+     * holding an entry. The mapping remains valid after the file is closed.
+     * Files too large to be mapped are read into a buffer.
+     */
+    public ByteBuffer getEntryBuffer(int idx) throws IOException {
+        checkIndex(idx);
+        final long offset = getEntryOffset(idx);
+        if (offset + entrySizes[idx] > Integer.MAX_VALUE) {
+            return readEntry(idx).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer bb = mapped;
+        if (bb == null) {
+            synchronized (this) {
+                bb = mapped;
+                if (bb == null) {
+                    bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fc.size(), Integer.MAX_VALUE));
+                    mapped = bb;
+                }
+            }
+        }
+        if (offset + entrySizes[idx] > bb.capacity()) {
+            throw new EOFException("Unexpected end of file " + file + " at position " + bb.capacity());
+        }
+        final ByteBuffer dup = bb.duplicate();
+        dup.limit((int) offset + entrySizes[idx]);
+        dup.position((int) offset);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Returns the position of the entry data in the bif file. */
+    public long getEntryOffset(int idx) {
+        checkIndex(idx);
+        return entryOffsets[idx] & 0xFFFFFFFFL;
+    }
 
-    public abstract void transferEntryToChannel(int entryIndex, WritableByteChannel c) throws IOException;
+    public void transferEntryToChannel(int entryIndex, WritableByteChannel c) throws IOException {
+        checkIndex(entryIndex);
+        transfer(getEntryOffset(entryIndex), entrySizes[entryIndex], c);
+    }
 
     public void transferEntryToFile(int entryIndex, File file) throws IOException {
         try (final FileOutputStream fos = new FileOutputStream(file);
              final FileChannel c = fos.getChannel()
         ) {
             transferEntryToChannel(entryIndex, c);
-            c.force(true);
         }
     }
 
@@ -91,10 +198,35 @@ abstract class BifFile implements Closeable {
         }
     }
 
-    protected static int readIntLE(RandomAccessFile raf) throws IOException {
-        return raf.readUnsignedByte()
-            | (raf.readUnsignedByte() << 8)
-            | (raf.readUnsignedByte() << 16)
-            | (raf.readUnsignedByte() << 24);
+    /**
+     * Reads bytes at the given file position without changing the position of
+     * the channel, so that several threads can read from the file.
+     *
+     * @return little endian buffer holding the bytes
+     */
+    protected ByteBuffer read(long position, int length) throws IOException {
+        final ByteBuffer bb = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (bb.hasRemaining()) {
+            if (fc.read(bb, position + bb.position()) == -1) {
+                throw new EOFException("Unexpected end of file " + file + " at position " + (position + bb.position()));
+            }
+        }
+        bb.flip();
+        return bb;
+    }
+
+    /**
+     * Transfers bytes of the file to a channel, the position of the file
+     * channel is not changed.
+     */
+    protected void transfer(long position, long length, WritableByteChannel c) throws IOException {
+        while (length > 0) {
+            final long n = fc.transferTo(position, length, c);
+            if (n <= 0) {
+                throw new EOFException("Unexpected end of file " + file + " at position " + position);
+            }
+            position += n;
+            length -= n;
+        }
     }
 }
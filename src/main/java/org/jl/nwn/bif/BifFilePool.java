@@ -0,0 +1,256 @@
+package org.jl.nwn.bif;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of open bif files shared by the threads using a repository.
+ * <p>
+ * At most {@link #getCapacity} files are kept open, when another file is
+ * opened the least recently used one is evicted. Files are handed out as
+ * {@link Lease leases}, an evicted file is closed when its last lease is
+ * released, so a resource that is being read is never closed under the
+ * reader.
+ * <p>
+ * Opening a file that fails with an {@link IOException} is retried a few
+ * times before giving up, after that the file is not tried again for
+ * {@value #FAILURE_RETRY_MILLIS} ms. Missing files are not retried at once
+ * but after the same delay, files that are not bif files are never retried.
+ */
+final class BifFilePool implements Closeable {
+
+    /** Default number of open files, can be changed with {@code -Dnwn.bifpool.size}. */
+    static final int DEFAULT_CAPACITY = Integer.getInteger("nwn.bifpool.size", 64);
+
+    private static final int OPEN_ATTEMPTS = 3;
+    private static final long OPEN_RETRY_DELAY = 50;
+    private static final long FAILURE_RETRY_MILLIS = 10000;
+
+    private final int capacity;
+    /** Open files in access order, guarded by {@code this}. */
+    private final LinkedHashMap<File, Handle> handles = new LinkedHashMap<>(16, 0.75f, true);
+    /** Time a file failed to open, {@code Long.MAX_VALUE} for permanent failures. Guarded by {@code this}. */
+    private final Map<File, Long> failures = new HashMap<>();
+    private boolean closed;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong opens = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong failedOpens = new AtomicLong();
+
+    /** Open bif file, closed when evicted and no longer leased. */
+    private static final class Handle {
+        private final BifFile bif;
+        /** Number of unreleased leases, guarded by the pool. */
+        private int leases;
+        private boolean evicted;
+
+        private Handle(BifFile bif) {
+            this.bif = bif;
+        }
+    }
+
+    /** Use of an open bif file, must be closed when the file is no longer needed. */
+    final class Lease implements Closeable {
+        private final Handle handle;
+        private boolean released;
+
+        private Lease(Handle handle) {
+            this.handle = handle;
+        }
+
+        BifFile getBifFile() {
+            return handle.bif;
+        }
+
+        @Override
+        public void close() {
+            final boolean last;
+            synchronized (BifFilePool.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                handle.leases--;
+                last = handle.evicted && handle.leases == 0;
+            }
+            // close outside of the lock, evicted handles cannot be leased again
+            if (last) {
+                closeQuietly(handle.bif);
+            }
+        }
+    }
+
+    BifFilePool(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1 : " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns a lease of an open bif file, opening the file if it is not in
+     * the pool.
+     *
+     * @return lease or {@code null} if the file cannot be opened
+     */
+    Lease acquire(File file) {
+        synchronized (this) {
+            final Lease lease = leaseOpen(file);
+            if (lease != null) {
+                hits.incrementAndGet();
+                return lease;
+            }
+            final Long failed = failures.get(file);
+            if (failed != null) {
+                if (System.currentTimeMillis() - failed < FAILURE_RETRY_MILLIS || failed == Long.MAX_VALUE) {
+                    failedOpens.incrementAndGet();
+                    return null;
+                }
+                failures.remove(file);
+            }
+        }
+        // open outside of the lock, other files remain accessible meanwhile
+        final BifFile bif = open(file);
+        final List<BifFile> toClose = new ArrayList<>();
+        try {
+            synchronized (this) {
+                if (bif == null) {
+                    failedOpens.incrementAndGet();
+                    return null;
+                }
+                if (closed) {
+                    toClose.add(bif);
+                    return null;
+                }
+                final Lease lease = leaseOpen(file);
+                if (lease != null) {
+                    // opened concurrently by another thread
+                    toClose.add(bif);
+                    hits.incrementAndGet();
+                    return lease;
+                }
+                final Handle handle = new Handle(bif);
+                handles.put(file, handle);
+                opens.incrementAndGet();
+                final Iterator<Handle> it = handles.values().iterator();
+                while (handles.size() > capacity) {
+                    final Handle eldest = it.next();
+                    it.remove();
+                    eldest.evicted = true;
+                    evictions.incrementAndGet();
+                    if (eldest.leases == 0) {
+                        toClose.add(eldest.bif);
+                    }
+                }
+                handle.leases++;
+                return new Lease(handle);
+            }
+        } finally {
+            for (final BifFile f : toClose) {
+                closeQuietly(f);
+            }
+        }
+    }
+
+    /**
+     * Returns a lease of the file if it is in the pool. A file whose channel
+     * was closed, e.g. because a reading thread was interrupted, is evicted
+     * so that it is opened again. Caller holds the lock.
+     */
+    private Lease leaseOpen(File file) {
+        final Handle handle = handles.get(file);
+        if (handle == null) {
+            return null;
+        }
+        if (!handle.bif.isOpen()) {
+            handles.remove(file);
+            handle.evicted = true;
+            evictions.incrementAndGet();
+            return null;
+        }
+        handle.leases++;
+        return new Lease(handle);
+    }
+
+    /** Opens a file, retrying transient failures. */
+    private BifFile open(File file) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return BifFile.open(file);
+            } catch (IllegalArgumentException iae) {
+                System.err.println("cannot open bif file " + file + " : " + iae);
+                failed(file, Long.MAX_VALUE);
+                return null;
+            } catch (IOException ioex) {
+                if (attempt == OPEN_ATTEMPTS || ioex instanceof FileNotFoundException) {
+                    System.err.println("cannot open bif file " + file + " : " + ioex);
+                    failed(file, System.currentTimeMillis());
+                    return null;
+                }
+            }
+            try {
+                Thread.sleep(OPEN_RETRY_DELAY * attempt);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private synchronized void failed(File file, long time) {
+        failures.put(file, time);
+    }
+
+    BifRepository.PoolStats getStats() {
+        final int open;
+        synchronized (this) {
+            open = handles.size();
+        }
+        return new BifRepository.PoolStats(hits.get(), opens.get(), evictions.get(), failedOpens.get(), open);
+    }
+
+    /**
+     * Closes all files that are not leased, leased files are closed when
+     * their leases are released. Files cannot be acquired after the pool is
+     * closed.
+     */
+    @Override
+    public void close() {
+        final List<BifFile> toClose = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (final Handle handle : handles.values()) {
+                handle.evicted = true;
+                if (handle.leases == 0) {
+                    toClose.add(handle.bif);
+                }
+            }
+            handles.clear();
+        }
+        for (final BifFile bif : toClose) {
+            closeQuietly(bif);
+        }
+    }
+
+    private static void closeQuietly(BifFile bif) {
+        try {
+            bif.close();
+        } catch (IOException ioex) {
+            System.err.println(ioex);
+        }
+    }
+}
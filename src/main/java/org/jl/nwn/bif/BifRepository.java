@@ -3,17 +3,34 @@ package org.jl.nwn.bif;
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -30,6 +47,7 @@ import javax.swing.JOptionPane;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.JToolBar;
+import javax.swing.SwingUtilities;
 
 import org.jl.nwn.resource.AbstractRepository;
 import org.jl.nwn.resource.ResourceID;
@@ -38,11 +56,13 @@ public class BifRepository extends AbstractRepository{
     private final KeyFile[] keyFiles;
     /** BIF file names contained in {@code .key} files are all relative to this dir. */
     private final File baseDir;
-    /** Cache of resources from all {@code .key} files. */
-    private TreeSet<ResourceID> resources;
+    /** Merged index of resources from all {@code .key} files, created on first use. */
+    private volatile MergedKeyIndex index;
 
-    /** Cache of loaded BIF files. */
-    private final Map<String, BifFile> bifFiles = new HashMap<>();
+    /** Bif files, indexed by bif id of the merged index. */
+    private File[] bifFiles;
+    /** Open BIF files. */
+    private final BifFilePool pool = new BifFilePool(BifFilePool.DEFAULT_CAPACITY);
 
     /** Array of the known names of {@code .key} files in preference order their loadings. */
     private static final String[] DEFAULT_KEYS = {
@@ -92,84 +112,367 @@ public class BifRepository extends AbstractRepository{
     //<editor-fold defaultstate="collapsed" desc="NwnRepository">
     @Override
     public InputStream getResource(ResourceID id) throws IOException {
-        final KeyFile.BifResourceLocation loc = findResourceLocation(id);
-        final BifFile bif = loc == null ? null : getBifFile(loc);
-        return bif == null ? null : bif.getEntry(loc.getBifIndex());
+        final int loc = findResourceLocation(id);
+        final BifFilePool.Lease lease = acquire(loc);
+        if (lease == null) {
+            return null;
+        }
+        try {
+            return new LeasedInputStream(lease.getBifFile().getEntry(MergedKeyIndex.bifIndex(loc)), lease);
+        } catch (IOException | RuntimeException ex) {
+            lease.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public ByteBuffer readResource(ResourceID id) throws IOException {
+        final int loc = findResourceLocation(id);
+        try (final BifFilePool.Lease lease = acquire(loc)) {
+            return lease == null ? null : lease.getBifFile().readEntry(MergedKeyIndex.bifIndex(loc));
+        }
+    }
+
+    /** Returns a slice of the memory mapped bif file. */
+    @Override
+    public ByteBuffer getResourceBuffer(ResourceID id) throws IOException {
+        final int loc = findResourceLocation(id);
+        try (final BifFilePool.Lease lease = acquire(loc)) {
+            return lease == null ? null : lease.getBifFile().getEntryBuffer(MergedKeyIndex.bifIndex(loc));
+        }
     }
 
     @Override
     public File getResourceLocation(ResourceID id) {
-        final KeyFile.BifResourceLocation loc = findResourceLocation(id);
-        final BifFile bif = loc == null ? null : getBifFile(loc);
-        return bif == null ? null : bif.getFile();
+        final int loc = findResourceLocation(id);
+        return loc == -1 ? null : bifFiles[MergedKeyIndex.bifId(loc)];
     }
 
     @Override
     public int getResourceSize(ResourceID id) {
-        final KeyFile.BifResourceLocation loc = findResourceLocation(id);
-        final BifFile bif = loc == null ? null : getBifFile(loc);
-        return bif == null ? 0 : bif.getEntrySize(loc.getBifIndex());
+        final int loc = findResourceLocation(id);
+        try (final BifFilePool.Lease lease = acquire(loc)) {
+            return lease == null ? 0 : lease.getBifFile().getEntrySize(MergedKeyIndex.bifIndex(loc));
+        }
     }
 
     @Override
     public Set<ResourceID> getResourceIDs() {
-        if (resources == null) {
-            resources = new TreeSet<>();
-            for (final KeyFile key : keyFiles) {
-                resources.addAll(key.getResources());
-            }
-        }
-        return Collections.unmodifiableSet( resources );
+        return index().getResources();
     }
 
     @Override
     public boolean contains(ResourceID id) {
-        return findResourceLocation(id) != null;
+        return findResourceLocation(id) != -1;
+    }
+
+    /**
+     * Closes all open bif files. Files of streams returned by
+     * {@link #getResource} are closed when the streams are closed.
+     */
+    @Override
+    public void close() throws IOException {
+        pool.close();
     }
     //</editor-fold>
 
     public boolean transferResourceToFile(ResourceID id, File file) throws IOException {
-        final KeyFile.BifResourceLocation loc = findResourceLocation(id);
-        final BifFile bif = loc == null ? null : getBifFile(loc);
-        if (bif != null) {
-            bif.transferEntryToFile(loc.getBifIndex(), file);
-            return true;
+        final int loc = findResourceLocation(id);
+        try (final BifFilePool.Lease lease = acquire(loc)) {
+            if (lease != null) {
+                lease.getBifFile().transferEntryToFile(MergedKeyIndex.bifIndex(loc), file);
+                return true;
+            }
         }
         return false;
     }
 
+    /** Returns usage statistics of the open bif files. */
+    public PoolStats getPoolStats() {
+        return pool.getStats();
+    }
+
+    /** Statistics of the bif files opened by a repository. */
+    public static final class PoolStats {
+        private final long hits;
+        private final long opens;
+        private final long evictions;
+        private final long failures;
+        private final int open;
+
+        PoolStats(long hits, long opens, long evictions, long failures, int open) {
+            this.hits = hits;
+            this.opens = opens;
+            this.evictions = evictions;
+            this.failures = failures;
+            this.open = open;
+        }
+
+        /** Returns number of requests served by an already open file. */
+        public long getHits() {
+            return hits;
+        }
+
+        /** Returns number of times a file was opened. */
+        public long getOpens() {
+            return opens;
+        }
+
+        /** Returns number of files closed to stay within the open file limit. */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /** Returns number of requests for files that could not be opened. */
+        public long getFailures() {
+            return failures;
+        }
+
+        /** Returns number of files currently open. */
+        public int getOpenFiles() {
+            return open;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d opens, %d evictions, %d failures, %d open files",
+                    hits, opens, evictions, failures, open);
+        }
+    }
+
+    /** Stream of a resource, releases the lease of its bif file when closed. */
+    private static final class LeasedInputStream extends FilterInputStream {
+        private final BifFilePool.Lease lease;
+
+        LeasedInputStream(InputStream in, BifFilePool.Lease lease) {
+            super(in);
+            this.lease = lease;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                lease.close();
+            }
+        }
+    }
+
+    /** Number of resources extracted by one task of {@link #extract}. */
+    private static final int EXTRACT_CHUNK_SIZE = 256;
+
+    /** Statistics of an {@link #extract} run. */
+    public static final class ExtractStats {
+        private final int files;
+        private final long bytes;
+        private final long millis;
+
+        ExtractStats(int files, long bytes, long millis) {
+            this.files = files;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        /** Returns number of extracted files. */
+        public int getFiles() {
+            return files;
+        }
+
+        /** Returns number of bytes written. */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /** Returns time used for extraction in milliseconds. */
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            final double seconds = Math.max(millis, 1) / 1000.0;
+            return String.format("%d files, %d bytes in %d ms (%.1f files/s, %.2f MB/s)",
+                    files, bytes, millis, files / seconds, bytes / seconds / (1024 * 1024));
+        }
+    }
+
+    /** Resource to extract and its position in its bif file. */
+    private static final class ExtractEntry {
+        final ResourceID id;
+        final int bifIndex;
+        long offset;
+
+        ExtractEntry(ResourceID id, int bifIndex) {
+            this.id = id;
+            this.bifIndex = bifIndex;
+        }
+    }
+
     /**
-     * Search for first index {@code .key} file, that contains entry about specified
-     * resource. Returns the most priority file of a repository
-     *
-     * @param resRef Pointer to resource
+     * Extracts resources to files named {@link ResourceID#toString()} in the
+     * output directory. Resources are grouped by bif file and extracted in
+     * the order of their position in the bif, chunks of resources are
+     * written in parallel by a bounded number of threads. Written files are
+     * not forced to disk.
      *
-     * @return Location in first index file that contains entry about specified
-     *         resource or {@code null}, if such file does not exist
+     * @param ids resources to extract, resources not found in this
+     *        repository are skipped
+     * @param outputDir directory to write files to
+     * @param threads maximum number of threads that write files
+     * @param progress called with the id of every extracted resource, from
+     *        the worker threads; may be {@code null}
+     * @return number of extracted files and bytes and time needed
+     * @throws IOException If a resource cannot be read or a file cannot be
+     *         written
      */
-    private KeyFile.BifResourceLocation findResourceLocation(ResourceID resRef) {
-        for (final KeyFile kf : keyFiles) {
-            final KeyFile.BifResourceLocation loc = kf.findResource(resRef);
-            if (loc != null) {
-                return loc;
+    public ExtractStats extract(Collection<ResourceID> ids, File outputDir, int threads, Consumer<ResourceID> progress) throws IOException {
+        final long start = System.currentTimeMillis();
+        final Map<Integer, List<ExtractEntry>> byBif = new LinkedHashMap<>();
+        for (final ResourceID id : ids) {
+            final int loc = findResourceLocation(id);
+            if (loc != -1) {
+                byBif.computeIfAbsent(MergedKeyIndex.bifId(loc), b -> new ArrayList<>())
+                     .add(new ExtractEntry(id, MergedKeyIndex.bifIndex(loc)));
             }
         }
-        return null;
+
+        final AtomicInteger files = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        final List<Future<?>> tasks = new ArrayList<>();
+        try {
+            for (final Map.Entry<Integer, List<ExtractEntry>> e : byBif.entrySet()) {
+                final File bifFile = bifFiles[e.getKey()];
+                final List<ExtractEntry> entries = e.getValue();
+                try (final BifFilePool.Lease lease = pool.acquire(bifFile)) {
+                    if (lease == null) {
+                        continue;
+                    }
+                    for (final ExtractEntry x : entries) {
+                        x.offset = lease.getBifFile().getEntryOffset(x.bifIndex);
+                    }
+                }
+                entries.sort(Comparator.comparingLong(x -> x.offset));
+                for (int i = 0; i < entries.size(); i += EXTRACT_CHUNK_SIZE) {
+                    final List<ExtractEntry> chunk = entries.subList(i, Math.min(entries.size(), i + EXTRACT_CHUNK_SIZE));
+                    tasks.add(workers.submit(() -> {
+                        try (final BifFilePool.Lease lease = pool.acquire(bifFile)) {
+                            if (lease == null) {
+                                throw new IOException("cannot open bif file " + bifFile);
+                            }
+                            for (final ExtractEntry x : chunk) {
+                                if (stopped.get()) {
+                                    break;
+                                }
+                                final File file = new File(outputDir, x.id.toString());
+                                try (final FileChannel out = FileChannel.open(file.toPath(), WRITE, CREATE, TRUNCATE_EXISTING)) {
+                                    lease.getBifFile().transferEntryToChannel(x.bifIndex, out);
+                                    bytes.addAndGet(out.size());
+                                }
+                                files.incrementAndGet();
+                                if (progress != null) {
+                                    progress.accept(x.id);
+                                }
+                            }
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (final Future<?> f : tasks) {
+                try {
+                    f.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IOException) {
+                        throw (IOException) ex.getCause();
+                    }
+                    throw new IOException(ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("extraction interrupted");
+                }
+            }
+        } finally {
+            // workers are not interrupted, an interrupt during transferTo
+            // would close the channel of the pooled bif file
+            stopped.set(true);
+            for (final Future<?> f : tasks) {
+                f.cancel(false);
+            }
+            workers.shutdown();
+            awaitTermination(workers);
+        }
+        return new ExtractStats(files.get(), bytes.get(), System.currentTimeMillis() - start);
     }
 
-    private BifFile getBifFile(KeyFile.BifResourceLocation loc) {
-        final String bifName = loc.getBifName();
-        BifFile bif = bifFiles.get(bifName);
-        if (bif == null) {
-            try{
-              bif = BifFile.open(new File(baseDir, bifName));
-              bifFiles.put(bifName, bif);
-            } catch ( IOException ioex ){
-                System.err.println(ioex);
-                bifFiles.put( bifName, null );
+    /**
+     * Waits until all tasks of the executor have finished, an interrupt of the
+     * calling thread is restored afterwards.
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (InterruptedException ex) {
+                interrupted = true;
             }
         }
-        return bif;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the merged index of all {@code .key} files, resources in several
+     * files are resolved to the location in the file with the highest priority.
+     */
+    private MergedKeyIndex index() {
+        MergedKeyIndex i = index;
+        if (i == null) {
+            synchronized (this) {
+                i = index;
+                if (i == null) {
+                    i = new MergedKeyIndex(keyFiles);
+                    bifFiles = new File[i.getBifCount()];
+                    for (int bifId = 0; bifId < bifFiles.length; bifId++) {
+                        bifFiles[bifId] = new File(baseDir, i.getBifName(bifId));
+                    }
+                    index = i;
+                }
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Search for location of resource in the most priority {@code .key} file
+     * that contains entry about specified resource.
+     *
+     * @param resRef Pointer to resource
+     *
+     * @return Packed location ( see {@link MergedKeyIndex#find} ) or {@code -1},
+     *         if no index file contains the resource
+     */
+    private int findResourceLocation(ResourceID resRef) {
+        return index().find(resRef);
+    }
+
+    /**
+     * @param loc Packed location of a resource
+     * @return Lease of the bif file containing the resource or {@code null},
+     *         if location is {@code -1} or the file cannot be opened
+     */
+    private BifFilePool.Lease acquire(int loc) {
+        if (loc == -1) {
+            return null;
+        }
+        index();
+        return pool.acquire(bifFiles[MergedKeyIndex.bifId(loc)]);
     }
 
     public static void main(String[] args) throws Exception {
@@ -201,22 +504,22 @@ public class BifRepository extends AbstractRepository{
                 outputDir.mkdirs();
         }
         final Pattern pat = Pattern.compile(args[1]);
-        int count = 0;
-        try {
-            for (final ResourceID id : br.getResourceIDs()) {
-                String s = id.toString();
-                if (pat.matcher(s).matches()) {
-                    System.out.println("BifRepository "+s);
-                    if (extract) {
-                        br.transferResourceToFile(id, new File(outputDir, s));
-                        count++;
-                    }
-                }
+        final List<ResourceID> matching = new ArrayList<>();
+        for (final ResourceID id : br.getResourceIDs()) {
+            String s = id.toString();
+            if (pat.matcher(s).matches()) {
+                System.out.println("BifRepository "+s);
+                matching.add(id);
+            }
+        }
+        if (extract) {
+            try {
+                System.out.println("extracted " + br.extract(matching, outputDir, Runtime.getRuntime().availableProcessors(), null));
+                System.out.println("bif files : " + br.getPoolStats());
+            } catch (IOException ioex) {
+                System.out.println(ioex);
+                ioex.printStackTrace();
             }
-        } catch (IOException ioex) {
-            System.out.println("files extracted : " + count);
-            System.out.println(ioex);
-            ioex.printStackTrace();
         }
     }
 
@@ -295,12 +598,13 @@ public class BifRepository extends AbstractRepository{
                         frame.setEnabled( false );
                         infoDialog.setVisible(true);
                         File outputDirFile = new File( outputDir.getText() );
+                        final List<ResourceID> ids = new ArrayList<>(selected.length);
                         for (final int index : selected) {
-                            final ResourceID id = model.get(index);
-                            String filename = id.toString();
-                            fileLabel.setText( filename );
-                            transferResourceToFile(id, new File( outputDirFile, filename ));
+                            ids.add(model.get(index));
                         }
+                        final ExtractStats stats = BifRepository.this.extract(ids, outputDirFile, Runtime.getRuntime().availableProcessors(),
+                                id -> SwingUtilities.invokeLater(() -> fileLabel.setText(id.toString())));
+                        System.out.println("extracted " + stats);
                     }
                 } catch ( IOException ioex ){
                     ioex.printStackTrace();
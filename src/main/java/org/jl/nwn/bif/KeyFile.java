@@ -11,6 +11,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 import org.jl.nwn.resource.ResourceID;
 
@@ -62,7 +63,30 @@ public abstract class KeyFile {
         return entryMap.get(resRef);
     }
 
+    /** Calls the action for every resource of this index and its location. */
+    void forEachEntry(BiConsumer<ResourceID, BifResourceLocation> action) {
+        entryMap.forEach(action);
+    }
+
+    /**
+     * Opens a key file. Unless disabled with {@code -Dnwn.keycache=false} a
+     * binary index of the key file is created on first use and used on later
+     * calls, see {@link KeyFileIndex}.
+     */
     public static KeyFile open(File file) throws IOException {
+        if (!KeyFileIndex.isEnabled()) {
+            return parse(file);
+        }
+        final KeyFile cached = KeyFileIndex.load(file);
+        if (cached != null) {
+            return cached;
+        }
+        final KeyFile key = parse(file);
+        KeyFileIndex.save(file, key);
+        return key;
+    }
+
+    private static KeyFile parse(File file) throws IOException {
         final byte[] header = new byte[8];
         try (final FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
             final MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
@@ -0,0 +1,323 @@
+package org.jl.nwn.bif;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.jl.nwn.resource.ResourceID;
+
+/**
+ * Key file read from a binary index cache. The cache is created the first
+ * time a key file is opened and stored next to it ( {@code chitin.key.idx} )
+ * or in the temporary directory if the key file directory is not writable.
+ * It is used as long as size and modification time of the key file match
+ * the values stored in the cache.
+ * <p>
+ * Layout of the cache file, all numbers little endian :
+ * <pre>
+ * "KIDX V1 "
+ * long     size of the key file
+ * long     modification time of the key file
+ * int      number of bif files
+ * int      number of resources
+ * int      offset of record table
+ * bif names, each : short length, UTF-8 bytes
+ * records, sorted by hash, each {@value #RECORD_SIZE} bytes :
+ *   int hash, short type, short bif, int index in bif, byte[16] name
+ * </pre>
+ * The hash is computed from the lower case name and the type, lookups use a
+ * binary search on the mapped record table, so opening a cached key file
+ * does not depend on the number of resources.
+ */
+final class KeyFileIndex extends KeyFile {
+
+    private static final byte[] MAGIC = {'K', 'I', 'D', 'X', ' ', 'V', '1', ' '};
+    private static final int HEADER_SIZE = 36;
+    private static final int NAME_SIZE = 16;
+    static final int RECORD_SIZE = 12 + NAME_SIZE;
+
+    private final String[] bifNames;
+    private final ByteBuffer records;
+    private final int size;
+    private Set<ResourceID> resources;
+
+    private KeyFileIndex(String[] bifNames, ByteBuffer records, int size) {
+        this.bifNames = bifNames;
+        this.records = records;
+        this.size = size;
+    }
+
+    /** Returns {@code false} if the cache is disabled with {@code -Dnwn.keycache=false}. */
+    static boolean isEnabled() {
+        return !"false".equals(System.getProperty("nwn.keycache"));
+    }
+
+    /**
+     * Opens the cached index of a key file.
+     *
+     * @return the index or {@code null} if there is no valid index
+     */
+    static KeyFileIndex load(File keyFile) {
+        for (final File f : cacheFiles(keyFile)) {
+            if (!f.isFile()) {
+                continue;
+            }
+            try (final FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                final MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+                mbb.order(ByteOrder.LITTLE_ENDIAN);
+                final KeyFileIndex index = read(mbb, keyFile);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException | RuntimeException ex) {
+                System.err.println("ignoring key file index " + f + " : " + ex);
+            }
+        }
+        return null;
+    }
+
+    private static KeyFileIndex read(ByteBuffer bb, File keyFile) {
+        if (bb.limit() < HEADER_SIZE) {
+            return null;
+        }
+        final byte[] magic = new byte[MAGIC.length];
+        bb.get(magic);
+        if (!Arrays.equals(MAGIC, magic)
+                || bb.getLong() != keyFile.length()
+                || bb.getLong() != keyFile.lastModified()) {
+            return null;
+        }
+        final int bifCount = bb.getInt();
+        final int size = bb.getInt();
+        final int recordOffset = bb.getInt();
+        final String[] bifNames = new String[bifCount];
+        for (int i = 0; i < bifCount; i++) {
+            final byte[] name = new byte[bb.getShort()];
+            bb.get(name);
+            bifNames[i] = new String(name, UTF_8);
+        }
+        if (recordOffset < bb.position() || (long) recordOffset + (long) size * RECORD_SIZE != bb.limit()) {
+            return null;
+        }
+        bb.position(recordOffset);
+        final ByteBuffer records = bb.slice().order(ByteOrder.LITTLE_ENDIAN);
+        return new KeyFileIndex(bifNames, records, size);
+    }
+
+    /**
+     * Writes the index of a parsed key file. Failures are reported and
+     * otherwise ignored, the index is only a cache.
+     */
+    static void save(File keyFile, KeyFile key) {
+        final Map<String, Integer> bifIds = new HashMap<>();
+        final List<String> bifNames = new ArrayList<>();
+        final int size = key.entryMap.size();
+        final long[] order = new long[size];
+        final ResourceID[] ids = new ResourceID[size];
+        final KeyFile.BifResourceLocation[] locations = new KeyFile.BifResourceLocation[size];
+        int n = 0;
+        for (final Map.Entry<ResourceID, KeyFile.BifResourceLocation> e : key.entryMap.entrySet()) {
+            if (e.getKey().getName().length() > NAME_SIZE) {
+                return;
+            }
+            ids[n] = e.getKey();
+            locations[n] = e.getValue();
+            bifIds.computeIfAbsent(e.getValue().getBifName(), name -> {
+                bifNames.add(name);
+                return bifNames.size() - 1;
+            });
+            // sort by hash, keep position in low bits
+            order[n] = ((long) hash(ids[n].getName(), ids[n].getType()) << 32) | n;
+            n++;
+        }
+        Arrays.sort(order);
+
+        int namesSize = 0;
+        final byte[][] encodedNames = new byte[bifNames.size()][];
+        for (int i = 0; i < encodedNames.length; i++) {
+            encodedNames[i] = bifNames.get(i).getBytes(UTF_8);
+            namesSize += 2 + encodedNames[i].length;
+        }
+        final int recordOffset = HEADER_SIZE + namesSize;
+        final ByteBuffer bb = ByteBuffer.allocate(recordOffset + size * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        bb.put(MAGIC).putLong(keyFile.length()).putLong(keyFile.lastModified());
+        bb.putInt(encodedNames.length).putInt(size).putInt(recordOffset);
+        for (final byte[] name : encodedNames) {
+            bb.putShort((short) name.length).put(name);
+        }
+        final byte[] name = new byte[NAME_SIZE];
+        for (final long o : order) {
+            final int i = (int) o;
+            final String resName = ids[i].getName();
+            Arrays.fill(name, (byte) 0);
+            for (int c = 0; c < resName.length(); c++) {
+                name[c] = (byte) resName.charAt(c);
+            }
+            bb.putInt((int) (o >> 32))
+              .putShort(ids[i].getType())
+              .putShort(bifIds.get(locations[i].getBifName()).shortValue())
+              .putInt(locations[i].getBifIndex())
+              .put(name);
+        }
+        bb.flip();
+
+        for (final File f : cacheFiles(keyFile)) {
+            try {
+                // the directory of the fallback index is created on first use
+                f.getParentFile().mkdirs();
+                final File tmp = File.createTempFile("keyidx", ".tmp", f.getParentFile());
+                try {
+                    try (final FileChannel fc = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                        while (bb.hasRemaining()) {
+                            fc.write(bb);
+                        }
+                    }
+                    Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    return;
+                } finally {
+                    tmp.delete();
+                }
+            } catch (IOException | SecurityException ex) {
+                bb.rewind();
+            }
+        }
+        System.err.println("could not write index for key file " + keyFile);
+    }
+
+    /** Files the index of a key file is looked up in, in order of preference. */
+    private static File[] cacheFiles(File keyFile) {
+        final File abs = keyFile.getAbsoluteFile();
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"), "nwn-keyidx");
+        return new File[]{
+            new File(abs.getParentFile(), abs.getName() + ".idx"),
+            new File(tmpDir, Integer.toHexString(abs.getPath().hashCode()) + "-" + abs.getName() + ".idx")
+        };
+    }
+
+    /** Case insensitive hash of name and type. */
+    static int hash(String name, short type) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + Character.toLowerCase(name.charAt(i));
+        }
+        return h * 31 + type;
+    }
+
+    @Override
+    public BifResourceLocation findResource(ResourceID resRef) {
+        final String name = resRef.getName();
+        final short type = resRef.getType();
+        final int hash = hash(name, type);
+        // find first record with hash
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (records.getInt(mid * RECORD_SIZE) < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < size && records.getInt(i * RECORD_SIZE) == hash; i++) {
+            final int p = i * RECORD_SIZE;
+            if (records.getShort(p + 4) == type && nameEquals(p + 12, name)) {
+                return new BifResourceLocation(bifNames[records.getShort(p + 6)], records.getInt(p + 8));
+            }
+        }
+        return null;
+    }
+
+    private boolean nameEquals(int p, String name) {
+        if (name.length() > NAME_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < NAME_SIZE; i++) {
+            final int b = records.get(p + i) & 0xff;
+            if (i == name.length()) {
+                return b == 0;
+            }
+            if (Character.toLowerCase((char) b) != Character.toLowerCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ResourceID resourceAt(int i) {
+        final int p = i * RECORD_SIZE;
+        int length = 0;
+        while (length < NAME_SIZE && records.get(p + 12 + length) != 0) {
+            length++;
+        }
+        final char[] name = new char[length];
+        for (int c = 0; c < length; c++) {
+            name[c] = (char) (records.get(p + 12 + c) & 0xff);
+        }
+        return new ResourceID(new String(name), records.getShort(p + 4));
+    }
+
+    @Override
+    void forEachEntry(BiConsumer<ResourceID, BifResourceLocation> action) {
+        for (int i = 0; i < size; i++) {
+            final int p = i * RECORD_SIZE;
+            action.accept(resourceAt(i), new BifResourceLocation(bifNames[records.getShort(p + 6)], records.getInt(p + 8)));
+        }
+    }
+
+    @Override
+    public Set<ResourceID> getResources() {
+        if (resources == null) {
+            resources = Collections.unmodifiableSet(new AbstractSet<ResourceID>() {
+                @Override
+                public Iterator<ResourceID> iterator() {
+                    return new Iterator<ResourceID>() {
+                        private int i = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < size;
+                        }
+
+                        @Override
+                        public ResourceID next() {
+                            if (i == size) {
+                                throw new NoSuchElementException();
+                            }
+                            return resourceAt(i++);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return o instanceof ResourceID && findResource((ResourceID) o) != null;
+                }
+            });
+        }
+        return resources;
+    }
+}
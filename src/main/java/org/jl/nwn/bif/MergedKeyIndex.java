@@ -0,0 +1,203 @@
+package org.jl.nwn.bif;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jl.nwn.resource.ResourceID;
+
+/**
+ * Index of the resources of several key files. A resource listed in more
+ * than one key file is resolved to the location in the key file with the
+ * highest priority.
+ * <p>
+ * Resources are stored in an open addressing hash table of primitive arrays
+ * keyed on the lower case resource name packed into two longs ( 8 ASCII
+ * characters each ) and the resource type, so a lookup neither allocates
+ * nor compares strings. Names that cannot be packed ( longer than 16
+ * characters or not ASCII ) are kept in a separate map.
+ */
+final class MergedKeyIndex {
+
+    /** Bits of a packed location used for the index in the bif. */
+    private static final int INDEX_BITS = 20;
+
+    /** Distinct bif names of all key files, location bif ids refer to it. */
+    private final String[] bifNames;
+
+    private final long[] names0;
+    private final long[] names1;
+    private final short[] types;
+    /** Packed location + 1, {@code 0} marks empty slots. */
+    private final int[] locations;
+    private final int mask;
+
+    /** Resources whose name cannot be packed, keyed by lower case id. */
+    private final Map<ResourceID, Integer> overflow = new HashMap<>();
+
+    /** All resources in natural order. */
+    private final ResourceID[] ids;
+
+    /**
+     * @param keyFiles key files, {@code keyFiles[0]} has highest priority
+     */
+    MergedKeyIndex(KeyFile[] keyFiles) {
+        final Map<String, Integer> bifIds = new LinkedHashMap<>();
+        int total = 0;
+        for (final KeyFile key : keyFiles) {
+            total += key.getResources().size();
+        }
+        int capacity = 16;
+        while (capacity < total + (total >> 1)) {
+            capacity <<= 1;
+        }
+        names0 = new long[capacity];
+        names1 = new long[capacity];
+        types = new short[capacity];
+        locations = new int[capacity];
+        mask = capacity - 1;
+
+        final List<ResourceID> all = new ArrayList<>(total);
+        for (final KeyFile key : keyFiles) {
+            key.forEachEntry((id, loc) -> {
+                final int bifId = bifIds.computeIfAbsent(loc.getBifName(), name -> bifIds.size());
+                if (bifId >= 1 << (31 - INDEX_BITS) || loc.getBifIndex() >= 1 << INDEX_BITS) {
+                    throw new IllegalArgumentException("too many bif files or resources : " + loc.getBifName());
+                }
+                if (putIfAbsent(id, (bifId << INDEX_BITS) | loc.getBifIndex())) {
+                    all.add(id);
+                }
+            });
+        }
+        bifNames = bifIds.keySet().toArray(new String[bifIds.size()]);
+        ids = all.toArray(new ResourceID[all.size()]);
+        Arrays.sort(ids);
+    }
+
+    /** Returns number of distinct bif files. */
+    int getBifCount() {
+        return bifNames.length;
+    }
+
+    String getBifName(int bifId) {
+        return bifNames[bifId];
+    }
+
+    /**
+     * Returns the packed location of a resource, use {@link #bifId} and
+     * {@link #bifIndex} to unpack it.
+     *
+     * @return location or {@code -1} if there is no such resource
+     */
+    int find(ResourceID id) {
+        final String name = id.getName();
+        final short type = id.getType();
+        if (!isPackable(name)) {
+            final Integer loc = overflow.get(lowerCase(id));
+            return loc == null ? -1 : loc;
+        }
+        final long n0 = pack(name, 0);
+        final long n1 = pack(name, 8);
+        for (int i = hash(n0, n1, type) & mask; locations[i] != 0; i = (i + 1) & mask) {
+            if (names0[i] == n0 && names1[i] == n1 && types[i] == type) {
+                return locations[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    static int bifId(int location) {
+        return location >>> INDEX_BITS;
+    }
+
+    static int bifIndex(int location) {
+        return location & ((1 << INDEX_BITS) - 1);
+    }
+
+    /** Returns all resources as an unmodifiable set iterating in natural order. */
+    Set<ResourceID> getResources() {
+        return new AbstractSet<ResourceID>() {
+            @Override
+            public Iterator<ResourceID> iterator() {
+                return Arrays.asList(ids).iterator();
+            }
+
+            @Override
+            public int size() {
+                return ids.length;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof ResourceID && find((ResourceID) o) != -1;
+            }
+        };
+    }
+
+    /** Adds a resource unless it is already known, returns {@code true} if added. */
+    private boolean putIfAbsent(ResourceID id, int location) {
+        final String name = id.getName();
+        final short type = id.getType();
+        if (!isPackable(name)) {
+            return overflow.putIfAbsent(lowerCase(id), location) == null;
+        }
+        final long n0 = pack(name, 0);
+        final long n1 = pack(name, 8);
+        int i = hash(n0, n1, type) & mask;
+        while (locations[i] != 0) {
+            if (names0[i] == n0 && names1[i] == n1 && types[i] == type) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        names0[i] = n0;
+        names1[i] = n1;
+        types[i] = type;
+        locations[i] = location + 1;
+        return true;
+    }
+
+    private static boolean isPackable(String name) {
+        if (name.length() > 16) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c == 0 || c > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Packs 8 lower case characters of name starting at from. */
+    private static long pack(String name, int from) {
+        long packed = 0;
+        final int to = Math.min(name.length(), from + 8);
+        for (int i = from; i < to; i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            packed |= (long) c << ((i - from) * 8);
+        }
+        return packed;
+    }
+
+    private static int hash(long n0, long n1, short type) {
+        long h = n0 * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 29) ^ n1) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 32) ^ type) * 0x94D049BB133111EBL;
+        return (int) (h ^ (h >>> 31));
+    }
+
+    private static ResourceID lowerCase(ResourceID id) {
+        return new ResourceID(id.getName().toLowerCase(), id.getType());
+    }
+}
@@ -1051,6 +1051,37 @@ public class EditorFrameX extends JXFrame implements PropertyChangeListener {
         }
     };
 
+    /**
+     * Maps a tlk file for lookups, used while no open tlk editor is selected
+     * as default or user table.
+     */
+    private class MapTlkForLookup extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+        private final boolean user;
+
+        MapTlkForLookup(boolean user) {
+            this.user = user;
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            final JFileChooser chooser = new JFileChooser(fChooser.getCurrentDirectory());
+            if (chooser.showOpenDialog(EditorFrameX.this) == JFileChooser.APPROVE_OPTION) {
+                final Version version = ((VersionSelectionFilter)fChooser.getFileFilter()).getVersion();
+                try {
+                    if (user) {
+                        tlp.setUserTlkFile(chooser.getSelectedFile(), version);
+                    } else {
+                        tlp.setTlkFile(chooser.getSelectedFile(), version);
+                    }
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(EditorFrameX.this, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }
+    }
+
     private void editorPanelChanged(SimpleFileEditorPanel ed) {
         updateTitle();
         if (editorToolbar != null) {
@@ -1148,6 +1179,9 @@ public class EditorFrameX extends JXFrame implements PropertyChangeListener {
         menuTlkLookup.add(rbItTlkLookupMain);
         menuTlkLookup.add(rbItTlkLookupUser);
         menuTlkLookup.add(rbItTlkLookupNone);
+        menuTlkLookup.addSeparator();
+        I18nUtil.setText(menuTlkLookup.add(new MapTlkForLookup(false)), Messages.getString("EditorFrame.MenuItem_TlkLookupMapDefaultTable")); //$NON-NLS-1$
+        I18nUtil.setText(menuTlkLookup.add(new MapTlkForLookup(true)), Messages.getString("EditorFrame.MenuItem_TlkLookupMapUserTable")); //$NON-NLS-1$
         I18nUtil.setText(menuTlkLookup, Messages.getString("EditorFrame.MenuTitleTlkLookupMenu")); //$NON-NLS-1$
         lookupDialog.getContentPane().add(tlp);
         lookupDialog.pack();
@@ -0,0 +1,111 @@
+package org.jl.nwn.erf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jl.nwn.Version;
+import org.jl.nwn.gff.GffCExoLocString;
+import org.jl.nwn.resource.ResourceID;
+
+/**
+ * Builds a new erf file from files and directory trees.
+ * <p>
+ * The layout of the erf is computed before any data is written : the sizes
+ * of all files are read in parallel, the output file is allocated with its
+ * final size and the files are then copied concurrently to their positions
+ * in the output. With many files this keeps all threads and the disk busy
+ * instead of copying one file after the other.
+ */
+public class ErfBuilder {
+    private final ErfFile.ErfType type;
+    private final GffCExoLocString description;
+    private final Version nwnVersion;
+    private final Map<ResourceID, File> files = new TreeMap<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public ErfBuilder( ErfFile.ErfType type, GffCExoLocString description, Version nwnVersion ){
+        this.type = type;
+        this.description = description;
+        this.nwnVersion = nwnVersion;
+    }
+
+    public ErfBuilder( ErfFile.ErfType type, GffCExoLocString description ){
+        this( type, description, Version.getDefaultVersion() );
+    }
+
+    /** Sets the number of threads used to copy files, default is the number of processors. */
+    public void setThreads( int threads ){
+        if ( threads < 1 )
+            throw new IllegalArgumentException( "threads < 1 : " + threads );
+        this.threads = threads;
+    }
+
+    /**
+     * Adds a file as a resource, replace resource with same id.
+     *
+     * @return ResourceID under which the file is stored
+     */
+    public ResourceID addFile( File file ){
+        final ResourceID id = ResourceID.forFile( file );
+        files.put( id, file );
+        return id;
+    }
+
+    /**
+     * Adds all files in a directory and its subdirectories. Files with the
+     * same resource id are added in path order, so the last one replaces the
+     * others.
+     */
+    public void addDirectory( File dir ) throws IOException{
+        final List<Path> paths;
+        try ( Stream<Path> s = Files.walk( dir.toPath() ) ){
+            paths = s.filter( Files::isRegularFile ).sorted().collect( Collectors.toList() );
+        }
+        for ( final Path p : paths )
+            addFile( p.toFile() );
+    }
+
+    /** Returns number of resources added so far. */
+    public int size(){
+        return files.size();
+    }
+
+    /**
+     * Writes the erf file.
+     *
+     * @return the written erf file
+     */
+    public ErfFile write( File output ) throws IOException{
+        final ErfFile erf = new ErfFile( output, type, description, nwnVersion );
+        for ( final Map.Entry<ResourceID, File> e : files.entrySet() )
+            erf.putResource( e.getKey(), e.getValue() );
+        final ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try{
+            erf.writeConcurrently( output, executor );
+        } finally {
+            executor.shutdown();
+        }
+        return erf;
+    }
+
+    public static void main( String[] args ) throws Exception{
+        if ( args.length < 2 ){
+            System.out.println( "erfbuilder.java create hak file from all files in a directory tree\n<directory> <hak file>" );
+            return;
+        }
+        final ErfBuilder builder = new ErfBuilder( ErfFile.HAK, new GffCExoLocString( "foo" ) );
+        builder.addDirectory( new File( args[0] ) );
+        final long start = System.currentTimeMillis();
+        builder.write( new File( args[1] ) ).close();
+        System.out.println( builder.size() + " resources written in " + ( System.currentTimeMillis() - start ) + " ms" );
+    }
+}
@@ -81,6 +81,8 @@ public class ErfEdit extends SimpleFileEditorPanel {
 
     /** Edited ERF. */
     private ErfFile erf;
+    /** Changes since the ERF was last saved, written by a single write on save. */
+    private ErfFile.Batch changes;
     /** Table model with content of the ERF archive. */
     private final ErfContentModel contentModel = new ErfContentModel();
     private final JXTable table = new JXTable(contentModel);
@@ -114,7 +116,7 @@ public class ErfEdit extends SimpleFileEditorPanel {
             fChooser.setFileSelectionMode( JFileChooser.FILES_ONLY );
             if ( fChooser.showOpenDialog( table ) == JFileChooser.APPROVE_OPTION ){
                 for (final File file : fChooser.getSelectedFiles()) {
-                    erf.putResource(file);
+                    changes.put(file);
                 }
                 contentModel.reload();
             }
@@ -234,7 +236,7 @@ public class ErfEdit extends SimpleFileEditorPanel {
                     try {
                         final String name = ResRefUtil.instance(erf.getVersion())
                                                       .parseString(aValue.toString());
-                        final ResourceID id = erf.renameResource(oldId, name);
+                        final ResourceID id = changes.rename(oldId, name);
                         reload();
                         final int index = resources.indexOf(id);
                         table.setRowSelectionInterval(index, index);
@@ -252,7 +254,7 @@ public class ErfEdit extends SimpleFileEditorPanel {
         }
 
         public void remove(int index) {
-            erf.remove(resources.remove(index));
+            changes.remove(resources.remove(index));
             fireTableRowsDeleted(index, index);
         }
 
@@ -363,7 +365,7 @@ public class ErfEdit extends SimpleFileEditorPanel {
             @Override
             public void importFiles(List<File> files) {
                 for (final File f : files) {
-                    erf.putResource(f);
+                    changes.put(f);
                 }
                 contentModel.reload();
             }
@@ -403,19 +405,22 @@ public class ErfEdit extends SimpleFileEditorPanel {
 
     @Override
     public void save() throws IOException {
-        erf.write();
+        changes.commit();
+        changes = erf.begin();
         setIsModified(false);
     }
 
     @Override
     public void saveAs(File f, Version nwnVersion) throws IOException {
-        erf.write(f);
+        changes.commit(f);
+        changes = erf.begin();
         setIsModified(false);
     }
 
     @Override
     public void close() {
         try{
+            changes.close();
             erf.close();
         } catch ( IOException ioex ){
             ioex.printStackTrace();
@@ -465,6 +470,7 @@ public class ErfEdit extends SimpleFileEditorPanel {
 
     private void setErf(ErfFile erf) {
         this.erf = erf;
+        changes = erf.begin();
         contentModel.reload();
 
         descEditor.setCExoLocString(erf.getDescription());
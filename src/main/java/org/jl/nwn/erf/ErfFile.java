@@ -1,27 +1,36 @@
 package org.jl.nwn.erf;
 
-import java.io.DataInput;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.jl.nwn.NwnLanguage;
 import org.jl.nwn.Version;
@@ -29,7 +38,7 @@ import org.jl.nwn.gff.CExoLocSubString;
 import org.jl.nwn.gff.Gff;
 import org.jl.nwn.gff.GffCExoLocString;
 import org.jl.nwn.resource.AbstractRepository;
-import org.jl.nwn.resource.RafInputStream;
+import org.jl.nwn.resource.ChannelInputStream;
 import org.jl.nwn.resource.ResRefUtil;
 import org.jl.nwn.resource.ResourceID;
 
@@ -55,6 +64,22 @@ public class ErfFile extends AbstractRepository{
     /** Map with {@link ResourceListEntry}, {@link File} or {@link InputStream} objects. */
     private final Map<ResourceID, Object> resources = new TreeMap<>();
     private Version nwnVersion;
+    /** Incremented when resources are added, removed or renamed. */
+    private long modificationCount;
+    /** Location of file resources in the erf file when it was last written. */
+    private final Map<ResourceID, WrittenFile> writtenFiles = new TreeMap<>();
+    private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    /** Batch in progress or {@code null}. */
+    private Batch batch;
+
+    /**
+     * Default fraction of unused bytes in the erf file above which {@link #write()}
+     * rewrites the whole file.
+     */
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.25;
+    private static final int HEADER_SIZE = 160;
+    /** Number of files copied by one task in {@link #writeConcurrently}. */
+    private static final int FILES_PER_TASK = 64;
 
     private static final String TMPFILEPREFIX = "erftmp_";
     public static final ErfType HAK = new ErfType( "HAK ", "hak" ){
@@ -119,39 +144,73 @@ public class ErfFile extends AbstractRepository{
     }
 
     /**
-     * Open given file as erf file
+     * Open given file as erf file. The header, description and key and
+     * resource lists are read, resource data is read on demand.
      */
     public ErfFile( File erf ) throws IOException{
         this.file = erf;
         if ( !erf.exists() )
             throw new FileNotFoundException( erf.toString() );
         raf = new RandomAccessFile( file, "r" );
-        final byte[] buf = new byte[32000];
-
-        raf.read( buf, 0, 4 );
-        type = ErfType.forTypeString(new String(buf, 0, 4, US_ASCII));
-
-        raf.read( buf, 0, 4 );
-        nwnVersion = determineVersion(buf);
-
-        final int languageCount = readIntLE( raf );
-        final int localizedStringSize = readIntLE( raf );
-        final int entryCount = readIntLE( raf );
-        final int offsetToLocalizedString = readIntLE( raf );
-        final int offsetToKeyList = readIntLE( raf );
-        final int offsetToResourceList = readIntLE( raf );
-        buildYear = readIntLE( raf );
-        buildDay = readIntLE( raf );
-        final int descriptionStrRef = readIntLE( raf );
-
-        // read localized strings
-        description = new GffCExoLocString( "erf_desc" );
-        description.setStrRef( descriptionStrRef );
-        raf.seek( offsetToLocalizedString );
+        try{
+            final FileChannel fc = raf.getChannel();
+            final long fileSize = fc.size();
+            if ( fileSize < HEADER_SIZE )
+                throw new IOException( "not an erf file : " + file );
+            final ByteBuffer headerBuffer = read( fc, 0, HEADER_SIZE ).asReadOnlyBuffer().order( ByteOrder.LITTLE_ENDIAN );
+            final byte[] buf = new byte[4];
+            headerBuffer.get( buf );
+            type = ErfType.forTypeString(new String(buf, US_ASCII));
+            headerBuffer.get( buf );
+            nwnVersion = determineVersion(buf);
+            buildYear = headerBuffer.getInt( 32 );
+            buildDay = headerBuffer.getInt( 36 );
+
+            final long entryCount = headerBuffer.getInt( 16 ) & 0xffffffffL;
+            checkRange( headerBuffer.getInt( 24 ), entryCount * (ResRefUtil.resRefSize(nwnVersion) + 8), fileSize );
+            checkRange( headerBuffer.getInt( 28 ), entryCount * 8, fileSize );
+            readLists( headerBuffer );
+            readDescription( headerBuffer );
+        } catch ( IOException ioex ){
+            raf.close();
+            throw ioex;
+        }
+    }
+
+    private void checkRange( int offset, long length, long fileSize ) throws IOException{
+        if ( offset < 0 || offset + length > fileSize )
+            throw new IOException( "corrupt erf file, list exceeds file size : " + file );
+    }
+
+    private void readLists( ByteBuffer headerBuffer ) throws IOException{
+        final int entryCount = headerBuffer.getInt( 16 );
+        final int resrefsize = ResRefUtil.resRefSize(nwnVersion);
+        final ByteBuffer keyList = read( raf.getChannel(), headerBuffer.getInt( 24 ), entryCount * (resrefsize+8) );
+        final ByteBuffer resourceList = read( raf.getChannel(), headerBuffer.getInt( 28 ), entryCount * 8 );
+        final byte[] buf = new byte[resrefsize];
+        for ( int i = 0; i < entryCount; i++ ){
+            keyList.get( buf );
+            final String filename = new String( buf, US_ASCII ).trim();
+            keyList.getInt(); // resID - not needed;
+            final short type = keyList.getShort();
+            keyList.getShort(); // unused
+            final int resourceOffset = resourceList.getInt();
+            final int resourceSize = resourceList.getInt();
+            resources.put( new ResourceID( filename, type ), new ResourceListEntry( resourceOffset, resourceSize ) );
+        }
+    }
+
+    private void readDescription( ByteBuffer headerBuffer ) throws IOException{
+        final int languageCount = headerBuffer.getInt( 8 );
+        final GffCExoLocString d = new GffCExoLocString( "erf_desc" );
+        d.setStrRef( headerBuffer.getInt( 40 ) );
+        long position = headerBuffer.getInt( 20 );
         for ( int i = 0; i < languageCount; i++ ){
-            int languageID = readIntLE( raf );
-            int stringSize = readIntLE( raf );
-            raf.read( buf, 0, stringSize );
+            final ByteBuffer entry = read( raf.getChannel(), position, 8 );
+            int languageID = entry.getInt();
+            int stringSize = entry.getInt();
+            final ByteBuffer string = read( raf.getChannel(), position + 8, stringSize );
+            position += 8 + stringSize;
 
             int languageCode = languageID;
             int gender = 0;
@@ -160,43 +219,11 @@ public class ErfFile extends AbstractRepository{
                 gender = languageCode % 2;
             }
             NwnLanguage lang = NwnLanguage.find( nwnVersion, languageCode );
-            final String s = new String(buf, 0, stringSize, lang.getEncoding());
+            final String s = new String(string.array(), 0, stringSize, lang.getEncoding());
 
-            description.addSubstring(new CExoLocSubString(s, lang, gender));
-        }
-
-        // use a MappedByteBuffer for reading KeyList and ResourceList
-        MappedByteBuffer mbb = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, offsetToKeyList, offsetToResourceList-offsetToKeyList+entryCount*8 );
-        mbb.order( ByteOrder.LITTLE_ENDIAN );
-        mbb.position( 0 );
-        int rlOffset = offsetToResourceList - offsetToKeyList;
-        int resrefsize = ResRefUtil.resRefSize(nwnVersion);
-        for ( int i = 0; i < entryCount; i++ ){
-            mbb.position( i * (resrefsize+8) );
-            mbb.get( buf,0,resrefsize );
-            String filename = new String( buf,0,resrefsize ).trim();
-            mbb.getInt(); // resID - not needed;
-            short type = mbb.getShort();
-            mbb.position( rlOffset + (i*8) );
-            int resourceOffset = mbb.getInt();
-            int resourceSize = mbb.getInt();
-            resources.put( new ResourceID( filename, type ), new ResourceListEntry( resourceOffset, resourceSize ) );
+            d.addSubstring(new CExoLocSubString(s, lang, gender));
         }
-    }
-
-    private static int readIntLE( DataInput raf ) throws IOException {
-        return raf.readUnsignedByte()
-        | (raf.readUnsignedByte() << 8)
-        | (raf.readUnsignedByte() << 16)
-        | (raf.readUnsignedByte() << 24);
-    }
-
-    private static void writeIntLE( RandomAccessFile out, int i)
-    throws IOException {
-        out.write(i & 255);
-        out.write((i >> 8) & 255);
-        out.write((i >> 16) & 255);
-        out.write((i >> 24) & 255);
+        description = d;
     }
 
     private static class ResourceListEntry{
@@ -208,6 +235,20 @@ public class ErfFile extends AbstractRepository{
         }
     }
 
+    /** A file resource written to the erf file and the state of the file at that time. */
+    private static class WrittenFile{
+        final File file;
+        final long lastModified;
+        final long length;
+        final ResourceListEntry entry;
+        WrittenFile( File file, long lastModified, long length, ResourceListEntry entry ){
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.entry = entry;
+        }
+    }
+
     public GffCExoLocString getDescription() {
         return description;
     }
@@ -230,7 +271,7 @@ public class ErfFile extends AbstractRepository{
         Object o = resources.get( id );
         if (o instanceof ResourceListEntry) {
             final ResourceListEntry rle = (ResourceListEntry)o;
-            return new RafInputStream( raf, rle.offset, rle.offset + rle.size );
+            return new ChannelInputStream( raf.getChannel(), rle.offset, rle.offset + rle.size );
         }
         if (o instanceof File) {
             return new FileInputStream((File)o);
@@ -241,29 +282,51 @@ public class ErfFile extends AbstractRepository{
         return null;
     }
 
+    /**
+     * Resources stored in the erf file are read with absolute positions,
+     * resources added from files are read from their own file.
+     */
+    @Override
+    public ByteBuffer readResource(ResourceID id) throws IOException {
+        final Object o = resources.get( id );
+        if (o instanceof ResourceListEntry) {
+            final ResourceListEntry rle = (ResourceListEntry)o;
+            return read( raf.getChannel(), rle.offset, rle.size );
+        }
+        if (o instanceof File) {
+            try (final FileChannel fc = FileChannel.open( ((File)o).toPath() )) {
+                return read( fc, 0, (int) fc.size() );
+            }
+        }
+        return super.readResource( id );
+    }
+
     @Override
     public void close() throws IOException{
         if (raf!=null) raf.close();
     }
 
+    /**
+     * @return size of the resource or 0 if there is no such resource or its
+     *         size is not known ( resources added as streams, files larger
+     *         than 2GB )
+     */
     @Override
     public int getResourceSize( ResourceID id ){
-        Object o = resources.get(id);
-        if ( o == null )
-            return -1;
-        int r = -1;
-        if ( !isFileResource( id ) ){
-            r= ((ResourceListEntry) o).size;
-        } else {
-            File f = (File) o;
-            r = (int)f.length();
+        final Object o = resources.get(id);
+        if ( o instanceof ResourceListEntry )
+            return ((ResourceListEntry) o).size;
+        if ( o instanceof File ){
+            final long length = ((File) o).length();
+            return length <= Integer.MAX_VALUE ? (int) length : 0;
         }
-        return r;
+        return 0;
     }
 
     /**
      * Return an {@link OutputStream} for adding a new Resource, closing the
-     * returned OutputStream rewrites this erf file.
+     * returned OutputStream writes this erf file unless a {@link Batch} is in
+     * progress.
      */
     @Override
     public OutputStream putResource(ResourceID id) throws IOException {
@@ -274,7 +337,8 @@ public class ErfFile extends AbstractRepository{
             @Override
             public void close() throws IOException{
                 super.close();
-                ErfFile.this.write();
+                if ( batch == null )
+                    writeChanges();
             };
         };
     }
@@ -294,6 +358,11 @@ public class ErfFile extends AbstractRepository{
         return true;
     }
 
+    @Override
+    public long getModificationStamp() {
+        return modificationCount;
+    }
+
     @Override
     public long lastModified(ResourceID id) {
         final Object o = resources.get(id);
@@ -308,111 +377,473 @@ public class ErfFile extends AbstractRepository{
     //</editor-fold>
 
     /**
-     * Write erf file.
+     * Write erf file. If the erf file already exists only the data of new and
+     * changed resources is appended to it, followed by new localized strings,
+     * key list and resource list, and then the header is updated to point to
+     * them. Until the header is written the file remains a valid erf with the
+     * old content.
+     * <p>
+     * The data of removed and replaced resources and the old lists remain in
+     * the file as unused bytes, when they would exceed the
+     * {@link #setCompactionThreshold compaction threshold} the whole file is
+     * rewritten instead.
+     *
+     * @throws IllegalStateException if a {@link Batch} is in progress
      */
     public void write() throws IOException{
-        write( file );
+        checkNoBatch();
+        writeChanges();
+    }
+
+    private void writeChanges() throws IOException{
+        if ( raf == null || !file.isFile() || !writeIncremental() )
+            writeAll( file );
     }
 
     /**
-     * Write this erf file to a new location.
+     * Rewrites the whole erf file, which removes all unused bytes.
+     *
+     * @throws IllegalStateException if a {@link Batch} is in progress
      */
-    public void write( File outputFile ) throws IOException{
-        this.file=outputFile;
+    public void compact() throws IOException{
+        checkNoBatch();
+        writeAll( file );
+    }
+
+    /**
+     * Sets the fraction of unused bytes in the erf file above which
+     * {@link #write()} rewrites the whole file, default is
+     * {@value #DEFAULT_COMPACTION_THRESHOLD}. 0 disables incremental writes.
+     */
+    public void setCompactionThreshold( double threshold ){
+        this.compactionThreshold = threshold;
+    }
+
+    public double getCompactionThreshold(){
+        return compactionThreshold;
+    }
+
+    /**
+     * Returns the position of a resource in the erf file, {@code null} if the
+     * resource data must be written to the file.
+     */
+    private ResourceListEntry writtenLocation( ResourceID id, Object o ){
+        if ( o instanceof ResourceListEntry )
+            return (ResourceListEntry) o;
+        final WrittenFile w = writtenFiles.get( id );
+        if ( w != null && w.file.equals( o )
+                && w.lastModified == w.file.lastModified() && w.length == w.file.length() )
+            return w.entry;
+        return null;
+    }
+
+    /**
+     * Appends new and changed resources and new lists to the erf file and
+     * updates the header.
+     *
+     * @return {@code false} if nothing was written because the whole file
+     *         should be rewritten
+     */
+    private boolean writeIncremental() throws IOException{
+        final int resrefsize = ResRefUtil.resRefSize(nwnVersion);
+        final byte[] locStringData = getLocStringData(description, nwnVersion);
+        final int localizedStringSize = locStringData.length - 12;
+        final int entryCount = resources.size();
+        final int tableSize = localizedStringSize + entryCount * (resrefsize + 16);
+
+        final ResourceListEntry[] entries = new ResourceListEntry[entryCount];
+        final Map<ResourceID, WrittenFile> appended = new TreeMap<>();
+        long liveSize = HEADER_SIZE + tableSize;
+        long appendSize = 0;
+        int i = 0;
+        for (final Map.Entry<ResourceID, Object> e : resources.entrySet()) {
+            final Object o = e.getValue();
+            entries[i] = writtenLocation( e.getKey(), o );
+            if ( entries[i] != null ){
+                liveSize += entries[i].size;
+            } else if ( o instanceof File ){
+                liveSize += ((File) o).length();
+                appendSize += ((File) o).length();
+            } else {
+                return false; // size of streams is unknown
+            }
+            i++;
+        }
+
+        try (final FileChannel out = FileChannel.open( file.toPath(), StandardOpenOption.WRITE )) {
+            final long newSize = out.size() + appendSize + tableSize;
+            if ( newSize - liveSize > compactionThreshold * newSize )
+                return false;
+            if ( newSize > Integer.MAX_VALUE )
+                throw new IOException( "erf file too large : " + file );
+
+            // append resource data
+            long end = out.size();
+            i = 0;
+            for (final Map.Entry<ResourceID, Object> e : resources.entrySet()) {
+                if ( entries[i] == null ){
+                    final File f = (File) e.getValue();
+                    final long lastModified = f.lastModified();
+                    try (final FileChannel in = FileChannel.open( f.toPath(), StandardOpenOption.READ )) {
+                        final long size = in.size();
+                        if ( end + size + tableSize > Integer.MAX_VALUE )
+                            throw new IOException( "erf file too large : " + file );
+                        out.position( end );
+                        transfer( in, 0, size, out );
+                        entries[i] = new ResourceListEntry( (int) end, (int) size );
+                        appended.put( e.getKey(), new WrittenFile( f, lastModified, size, entries[i] ) );
+                        end += size;
+                    }
+                }
+                i++;
+            }
+
+            // append localized strings, key list and resource list
+            final int offsetToLocalizedString = (int) end;
+            final int offsetToKeyList = offsetToLocalizedString + localizedStringSize;
+            final int offsetToResourceList = offsetToKeyList + entryCount * (resrefsize + 8);
+            final ByteBuffer tables = ByteBuffer.allocate( tableSize ).order( ByteOrder.LITTLE_ENDIAN );
+            tables.put( locStringData, 12, localizedStringSize );
+            i = 0;
+            for (final ResourceID id : resources.keySet()) {
+                putKeyListEntry( tables, id, i++, resrefsize );
+            }
+            for (final ResourceListEntry rle : entries) {
+                tables.putInt( rle.offset ).putInt( rle.size );
+            }
+            tables.flip();
+            writeFully( out, tables, end );
+            out.force( false );
+
+            // switch to the new lists
+            writeFully( out, header( description.getSubstringCount(), localizedStringSize, entryCount,
+                    offsetToLocalizedString, offsetToKeyList, offsetToResourceList ), 0 );
+            out.force( false );
+        }
+        writtenFiles.putAll( appended );
+        return true;
+    }
 
-        String fileType = type.typeString;
+    /** Returns the erf header for the given list positions. */
+    private ByteBuffer header( int languageCount, int localizedStringSize, int entryCount,
+            int offsetToLocalizedString, int offsetToKeyList, int offsetToResourceList ){
         String version = null;
         switch( nwnVersion ){
             case NWN1 : { version = "V1.0"; break; }
             case NWN2 : { version = "V1.1"; break; }
         }
-        final int resrefsize = ResRefUtil.resRefSize(nwnVersion);
+        final Calendar rightNow = Calendar.getInstance();
+        final ByteBuffer bb = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        bb.put( type.typeString.getBytes( US_ASCII ) );
+        bb.put( version.getBytes( US_ASCII ) );
+        bb.putInt( languageCount );
+        bb.putInt( localizedStringSize );
+        bb.putInt( entryCount );
+        bb.putInt( offsetToLocalizedString );
+        bb.putInt( offsetToKeyList );
+        bb.putInt( offsetToResourceList );
+        bb.putInt( rightNow.get( Calendar.YEAR ) - 1900 );
+        bb.putInt( rightNow.get( Calendar.DAY_OF_YEAR ) );
+        bb.putInt( description.getStrRef() );
+        bb.position( HEADER_SIZE ); // rest is 0
+        bb.flip();
+        return bb;
+    }
+
+    /** Puts a key list entry : resref, resource id, type and 2 unused bytes. */
+    private static void putKeyListEntry( ByteBuffer bb, ResourceID id, int resId, int resrefsize ){
+        final byte[] nameBytes = id.getName().getBytes( US_ASCII );
+        final int nameLength = Math.min( nameBytes.length, resrefsize );
+        final int start = bb.position();
+        bb.put( nameBytes, 0, nameLength );
+        bb.position( start + resrefsize );
+        bb.putInt( resId );
+        bb.putShort( id.getType() );
+        bb.putShort( (short) 0 );
+    }
+
+    private static void writeFully( FileChannel out, ByteBuffer bb, long position ) throws IOException{
+        while ( bb.hasRemaining() )
+            position += out.write( bb, position );
+    }
+
+    /**
+     * Write this erf file to a new location.
+     * <p>
+     * Resource data is moved with {@link FileChannel#transferTo} from the
+     * current erf file ( in file order ) and from added files, so it is
+     * not copied through the java heap. Header, localized strings, key list
+     * and resource list are assembled in a buffer and written last.
+     *
+     * @throws IllegalStateException if a {@link Batch} is in progress
+     */
+    public void write( File outputFile ) throws IOException{
+        checkNoBatch();
+        writeAll( outputFile );
+    }
+
+    private void writeAll( File outputFile ) throws IOException{
+        writeAll( outputFile, null );
+    }
 
-        int languageCount = description.getSubstringCount();
-        byte[] locStringData = getLocStringData(description, nwnVersion);
-        int localizedStringSize = locStringData.length - 12;
-        int entryCount = resources.size();
-        int offsetToLocalizedString = 160; // starts directly after header
-        int offsetToKeyList = offsetToLocalizedString + localizedStringSize;
-        int offsetToResourceList =
+    /**
+     * Writes an erf whose resources are all files, the files are copied
+     * concurrently by the tasks of executor, see {@link ErfBuilder}.
+     */
+    void writeConcurrently( File outputFile, ExecutorService executor ) throws IOException{
+        checkNoBatch();
+        for ( final Object o : resources.values() )
+            if ( !( o instanceof File ) )
+                throw new IllegalStateException( "not a file resource : " + o );
+        writeAll( outputFile, executor );
+    }
+
+    /**
+     * Writes the whole erf file to outputFile. If writing fails the erf
+     * remains unchanged.
+     *
+     * @param executor copies file resources concurrently, {@code null} to
+     *        copy all resources in the calling thread
+     */
+    private void writeAll( File outputFile, ExecutorService executor ) throws IOException{
+        final Map<ResourceID, WrittenFile> written = new TreeMap<>();
+
+        final int resrefsize = ResRefUtil.resRefSize(nwnVersion);
+        final byte[] locStringData = getLocStringData(description, nwnVersion);
+        final int localizedStringSize = locStringData.length - 12;
+        final int entryCount = resources.size();
+        final int offsetToLocalizedString = HEADER_SIZE; // starts directly after header
+        final int offsetToKeyList = offsetToLocalizedString + localizedStringSize;
+        final int offsetToResourceList =
                 offsetToKeyList + (entryCount*(resrefsize+8)); // note : this is not the case in files created by the toolset
-        int descriptionStrRef = description.getStrRef();
-        File tmpErf = File.createTempFile( TMPFILEPREFIX + file.getName(), "" );
-        byte[] buf = new byte[32000];
+        final int offsetToResourceData = offsetToResourceList + (entryCount*8);
+
+        final ResourceID[] ids = resources.keySet().toArray( new ResourceID[entryCount] );
+        final ResourceListEntry[] entries = new ResourceListEntry[entryCount];
+        // copy resources stored in the current erf file in file order, then the others
+        final Integer[] order = new Integer[entryCount];
+        for ( int i = 0; i < entryCount; i++ ) order[i] = i;
+        Arrays.sort( order, ( a, b ) -> Long.compare( sourceOffset( ids[a] ), sourceOffset( ids[b] ) ) );
+
+        final File tmpErf = createTempFile( outputFile );
         try{
-            try (final RandomAccessFile out = new RandomAccessFile( tmpErf, "rw" )) {
-                out.write( fileType.getBytes() );
-                out.write( version.getBytes() );
-                writeIntLE( out, languageCount );
-                writeIntLE( out, localizedStringSize );
-                writeIntLE( out, entryCount );
-                writeIntLE( out, offsetToLocalizedString );
-                writeIntLE( out, offsetToKeyList );
-                writeIntLE( out, offsetToResourceList );
-                Calendar rightNow = Calendar.getInstance();
-                writeIntLE( out, rightNow.get( Calendar.YEAR ) - 1900 );
-                writeIntLE( out, rightNow.get( Calendar.DAY_OF_YEAR ) );
-                writeIntLE( out, descriptionStrRef );
-                out.write( buf,0,116 ); // should be all 0
-
-                // write localized strings
-                out.write( locStringData, 12, locStringData.length -12 );
-
-                int offsetToResourceData = offsetToResourceList + (entryCount*8);
-                int resIdCounter = 0;
-                int offset = offsetToResourceData;
-                byte[] zero = new byte[resrefsize];
-                for (final ResourceID id : resources.keySet()) {
-                    // write key list entry
-                    out.seek( offsetToKeyList + (resIdCounter*(resrefsize+8)) );
-
-                    byte[] nameBytes = id.getName().getBytes("ASCII");
-                    int nameLength = Math.min(
-                            nameBytes.length,
-                            resrefsize);
-                    out.write( nameBytes, 0, nameLength );
-                    out.write( zero,0,resrefsize-nameLength );
-                    writeIntLE( out, resIdCounter );
-                    out.write(id.getType() & 255);
-                    out.write((id.getType() >> 8) & 255);
-                    out.write( zero,0,2 );
-
-                    //write resource data
-                    int resourceSize = 0;
-                    out.seek(offset);
-                    try (final InputStream is = getResource( id )) {
-                        int len;
-                        while ( (len=is.read(buf))!=-1 ){
-                            resourceSize += len;
-                            out.write( buf,0,len );
+            try (final FileChannel out = FileChannel.open( tmpErf.toPath(), StandardOpenOption.WRITE )) {
+                long offset = offsetToResourceData;
+                out.position( offset );
+                if ( executor != null ){
+                    transferConcurrently( ids, entries, written, offset, tmpErf, out, executor );
+                } else {
+                    for ( final int i : order ){
+                        final ResourceID id = ids[i];
+                        final Object o = resources.get( id );
+                        final long lastModified = o instanceof File ? ((File) o).lastModified() : 0;
+                        final long resourceSize;
+                        if ( o instanceof ResourceListEntry ){
+                            final ResourceListEntry rle = (ResourceListEntry) o;
+                            resourceSize = transfer( raf.getChannel(), rle.offset, rle.size, out );
+                        } else if ( o instanceof File ){
+                            try (final FileChannel in = FileChannel.open( ((File) o).toPath(), StandardOpenOption.READ )) {
+                                resourceSize = transfer( in, 0, in.size(), out );
+                            }
+                        } else {
+                            try (final InputStream is = getResource( id )) {
+                                resourceSize = transfer( is, out );
+                            }
                         }
+                        if ( offset + resourceSize > Integer.MAX_VALUE )
+                            throw new IOException( "erf file too large : " + outputFile );
+                        entries[i] = new ResourceListEntry( (int) offset, (int) resourceSize );
+                        if ( o instanceof File )
+                            written.put( id, new WrittenFile( (File) o, lastModified, resourceSize, entries[i] ) );
+                        offset += resourceSize;
                     }
+                }
 
-                    //write resource list entry
-                    out.seek( offsetToResourceList + (8*resIdCounter) );
-                    writeIntLE( out, offset );
-                    writeIntLE( out, resourceSize );
+                final ByteBuffer tables = ByteBuffer.allocate( offsetToResourceData ).order( ByteOrder.LITTLE_ENDIAN );
+                tables.put( header( description.getSubstringCount(), localizedStringSize, entryCount,
+                        offsetToLocalizedString, offsetToKeyList, offsetToResourceList ) );
+                tables.put( locStringData, 12, localizedStringSize );
+                for ( int i = 0; i < entryCount; i++ )
+                    putKeyListEntry( tables, ids[i], i, resrefsize );
+                for ( final ResourceListEntry rle : entries )
+                    tables.putInt( rle.offset ).putInt( rle.size );
+                tables.flip();
+                writeFully( out, tables, 0 );
+            }
 
-                    // update resource map
-                    // this should not interfere with the iterator, as all ids are already in the key set
-                    if ( !isFileResource(id) ) {
-                        resources.put( id, new ResourceListEntry(offset, resourceSize) );
+            // replace erf file, the old file is closed first because some
+            // platforms cannot replace open files
+            if ( raf!=null ) raf.close();
+            try {
+                try {
+                    Files.move( tmpErf.toPath(), outputFile.toPath(), REPLACE_EXISTING );
+                } catch ( IOException ioex ){
+                    // e.g. temp file on another file system
+                    Files.copy( tmpErf.toPath(), outputFile.toPath(), REPLACE_EXISTING );
+                }
+            } catch ( IOException ioex ){
+                // keep reading resources from the unchanged old file
+                if ( raf!=null ){
+                    try {
+                        raf = new RandomAccessFile( file, "r" );
+                    } catch ( IOException reopen ){
+                        ioex.addSuppressed( reopen );
                     }
-
-                    offset+=resourceSize;
-                    resIdCounter++;
                 }
+                throw ioex;
             }
-
-            // copy temp file
-            if ( raf!=null ) raf.close();
-            Files.copy(tmpErf.toPath(), file.toPath(), REPLACE_EXISTING);
-            raf = new RandomAccessFile( file, "r" );
+            final RandomAccessFile newRaf = new RandomAccessFile( outputFile, "r" );
+            this.file = outputFile;
+            raf = newRaf;
+
+            // update resource map, all ids are already in the key set
+            for ( int i = 0; i < entryCount; i++ )
+                if ( !( resources.get( ids[i] ) instanceof File ) )
+                    resources.put( ids[i], entries[i] );
+            writtenFiles.clear();
+            writtenFiles.putAll( written );
         } finally {
             tmpErf.delete();
         }
     }
 
+    /**
+     * Copies the file resources to out. The file sizes are read first to
+     * compute the position of every resource, then groups of files are copied
+     * in parallel, each group through its own channel to the output file.
+     */
+    private void transferConcurrently( ResourceID[] ids, ResourceListEntry[] entries,
+            Map<ResourceID, WrittenFile> written, long offset, File outputFile, FileChannel out,
+            ExecutorService executor ) throws IOException{
+        final File[] files = new File[ids.length];
+        for ( int i = 0; i < ids.length; i++ )
+            files[i] = (File) resources.get( ids[i] );
+        final long[] lastModified = new long[ids.length];
+        final long[] sizes = new long[ids.length];
+        final List<Future<Void>> stats = new ArrayList<>();
+        for ( int from = 0; from < ids.length; from += FILES_PER_TASK ){
+            final int start = from;
+            final int end = Math.min( ids.length, from + FILES_PER_TASK );
+            stats.add( executor.submit( () -> {
+                for ( int i = start; i < end; i++ ){
+                    lastModified[i] = files[i].lastModified();
+                    sizes[i] = files[i].length();
+                }
+                return null;
+            } ) );
+        }
+        for ( int t = 0; t < stats.size(); t++ )
+            await( stats, t );
+        for ( int i = 0; i < ids.length; i++ ){
+            if ( offset + sizes[i] > Integer.MAX_VALUE )
+                throw new IOException( "erf file too large : " + files[i] );
+            entries[i] = new ResourceListEntry( (int) offset, (int) sizes[i] );
+            offset += sizes[i];
+        }
+
+        // allocate the whole file, then fill in the resources
+        if ( offset > out.size() )
+            writeFully( out, ByteBuffer.allocate( 1 ), offset - 1 );
+        final List<Future<Void>> copies = new ArrayList<>();
+        for ( int from = 0; from < ids.length; from += FILES_PER_TASK ){
+            final int start = from;
+            final int end = Math.min( ids.length, from + FILES_PER_TASK );
+            copies.add( executor.submit( () -> {
+                try (final FileChannel taskOut = FileChannel.open( outputFile.toPath(), StandardOpenOption.WRITE )) {
+                    for ( int i = start; i < end; i++ ){
+                        try (final FileChannel in = FileChannel.open( files[i].toPath(), StandardOpenOption.READ )) {
+                            if ( in.size() != entries[i].size )
+                                throw new IOException( "file changed while writing erf : " + files[i] );
+                            taskOut.position( entries[i].offset );
+                            transfer( in, 0, entries[i].size, taskOut );
+                        }
+                    }
+                }
+                return null;
+            } ) );
+        }
+        for ( int t = 0; t < copies.size(); t++ )
+            await( copies, t );
+        for ( int i = 0; i < ids.length; i++ )
+            written.put( ids[i], new WrittenFile( files[i], lastModified[i], sizes[i], entries[i] ) );
+    }
+
+    /**
+     * Waits for task i, if it failed the remaining tasks are cancelled and
+     * the failure is rethrown.
+     */
+    private static <T> T await( List<Future<T>> tasks, int i ) throws IOException{
+        try {
+            return tasks.get( i ).get();
+        } catch ( InterruptedException | ExecutionException ex ){
+            // do not interrupt running tasks, that would close the output channel
+            for ( final Future<T> f : tasks )
+                f.cancel( false );
+            if ( ex instanceof InterruptedException ){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "erf write interrupted" );
+            }
+            final Throwable cause = ex.getCause();
+            if ( cause instanceof IOException )
+                throw (IOException) cause;
+            throw new IOException( cause );
+        }
+    }
+
+    /** Position of a resource in the current erf file, resources from other sources sort last. */
+    private long sourceOffset( ResourceID id ){
+        final Object o = resources.get( id );
+        return o instanceof ResourceListEntry ? ((ResourceListEntry) o).offset : Long.MAX_VALUE;
+    }
+
+    /** Creates the temp file for a full write, next to the erf file if possible so it can be moved. */
+    private static File createTempFile( File file ) throws IOException{
+        final File dir = file.getAbsoluteFile().getParentFile();
+        if ( dir != null && dir.canWrite() ){
+            try {
+                return File.createTempFile( TMPFILEPREFIX, ".tmp", dir );
+            } catch ( IOException ioex ){
+                // fall back to temp directory
+            }
+        }
+        return File.createTempFile( TMPFILEPREFIX + file.getName(), "" );
+    }
+
+    /**
+     * Copies size bytes starting at position from in to the current
+     * position of out.
+     *
+     * @return number of bytes copied
+     */
+    private static long transfer( FileChannel in, long position, long size, FileChannel out ) throws IOException{
+        long n = 0;
+        while ( n < size ){
+            final long r = in.transferTo( position + n, size - n, out );
+            if ( r <= 0 && position + n >= in.size() )
+                throw new IOException( "unexpected end of file at position " + ( position + n ) );
+            n += r;
+        }
+        return n;
+    }
+
+    /**
+     * Copies a stream to the current position of out.
+     *
+     * @return number of bytes copied
+     */
+    private static long transfer( InputStream is, FileChannel out ) throws IOException{
+        final ReadableByteChannel in = Channels.newChannel( is );
+        final ByteBuffer buf = ByteBuffer.allocate( 32000 );
+        long n = 0;
+        while ( in.read( buf ) != -1 ){
+            buf.flip();
+            while ( buf.hasRemaining() )
+                n += out.write( buf );
+            buf.clear();
+        }
+        return n;
+    }
+
     /**
      * Remove a resource from this erf.
      *
@@ -420,6 +851,7 @@ public class ErfFile extends AbstractRepository{
      *         was no such resource
      */
     public boolean remove( ResourceID id ){
+        modificationCount++;
         return resources.remove( id ) != null;
     }
 
@@ -427,6 +859,7 @@ public class ErfFile extends AbstractRepository{
      * Adds file as resource under the given resource id, replace resource with same id
      */
     public void putResource( ResourceID id, File file ){
+        modificationCount++;
         resources.put( id, file );
     }
 
@@ -443,6 +876,7 @@ public class ErfFile extends AbstractRepository{
             return null;
         final ResourceID nId = new ResourceID(newName, id.getType());
         if ( !nId.equals( id ) ){
+            modificationCount++;
             resources.put( nId, resources.get(id) );
             resources.remove( id );
         }
@@ -451,15 +885,17 @@ public class ErfFile extends AbstractRepository{
 
     /**
      * Adds all resource from erf to this file, if they do not already exist in
-     * this file and rewrites this erf.
+     * this file and writes this erf unless a {@link Batch} is in progress.
      */
     public void merge( ErfFile erf ) throws IOException{
+        modificationCount++;
         for (final ResourceID id : erf.resources.keySet()) {
             if (!resources.containsKey(id)) {
                 resources.put(id, erf.getResource(id));
             }
         }
-        write();
+        if ( batch == null )
+            writeChanges();
     }
 
     /**
@@ -468,11 +904,154 @@ public class ErfFile extends AbstractRepository{
      * @return ResourceID under which the new resource was stored
      */
     public ResourceID putResource( File file ){
+        modificationCount++;
         ResourceID id = ResourceID.forFile( file );
         resources.put( id, file );
         return id;
     }
 
+    /**
+     * Starts a batch of changes that is written with a single write when it is
+     * committed. Resources can be changed through the batch or through this
+     * erf, writes are deferred until the batch ends. Use the batch in a
+     * try-with-resources statement, if it is not committed the resources are
+     * restored to the state at the start of the batch :
+     * <pre>
+     * try ( ErfFile.Batch batch = erf.begin() ){
+     *     for ( File f : files )
+     *         batch.put( f );
+     *     batch.commit();
+     * }
+     * </pre>
+     *
+     * @throws IllegalStateException if a batch is already in progress
+     */
+    public Batch begin(){
+        if ( batch != null )
+            throw new IllegalStateException( "batch already in progress" );
+        batch = new Batch();
+        return batch;
+    }
+
+    private void checkNoBatch(){
+        if ( batch != null )
+            throw new IllegalStateException( "batch in progress" );
+    }
+
+    /**
+     * Changes to the resources of an erf file written by a single write, see
+     * {@link ErfFile#begin}. Description and type are not part of the batch.
+     */
+    public final class Batch implements Closeable{
+        private final Map<ResourceID, Object> snapshot = new TreeMap<>( resources );
+        private final List<File> tempFiles = new ArrayList<>();
+
+        private Batch(){}
+
+        /** Adds a file as a resource, replace resource with same id. */
+        public ResourceID put( File file ){
+            checkOpen();
+            return ErfFile.this.putResource( file );
+        }
+
+        /** Adds file as resource under the given resource id, replace resource with same id. */
+        public void put( ResourceID id, File file ){
+            checkOpen();
+            ErfFile.this.putResource( id, file );
+        }
+
+        /**
+         * Return an {@link OutputStream} for adding a new resource, the data is
+         * kept in a temp file until the batch is committed.
+         */
+        public OutputStream putResource( ResourceID id ) throws IOException{
+            checkOpen();
+            final File f = File.createTempFile( TMPFILEPREFIX, id.getFileName() );
+            f.deleteOnExit();
+            tempFiles.add( f );
+            ErfFile.this.putResource( id, f );
+            return new FileOutputStream( f );
+        }
+
+        /** @return {@code true} if the resource existed */
+        public boolean remove( ResourceID id ){
+            checkOpen();
+            return ErfFile.this.remove( id );
+        }
+
+        /** @see ErfFile#renameResource */
+        public ResourceID rename( ResourceID id, String newName ){
+            checkOpen();
+            return renameResource( id, newName );
+        }
+
+        /**
+         * Writes the erf file and ends the batch. If writing fails the batch
+         * remains in progress with all changes, so it can be committed again
+         * or rolled back.
+         */
+        public void commit() throws IOException{
+            checkOpen();
+            writeChanges();
+            deleteTempFiles();
+            batch = null;
+        }
+
+        /**
+         * Writes the erf to a new file and ends the batch, see
+         * {@link #commit()}.
+         */
+        public void commit( File outputFile ) throws IOException{
+            checkOpen();
+            writeAll( outputFile );
+            deleteTempFiles();
+            batch = null;
+        }
+
+        /** Restores the resources to the state at the start of the batch and ends the batch. */
+        public void rollback(){
+            checkOpen();
+            resources.clear();
+            resources.putAll( snapshot );
+            modificationCount++;
+            for ( final File f : tempFiles )
+                f.delete();
+            batch = null;
+        }
+
+        /**
+         * Deletes the temp files after the erf file was written, resources
+         * still stored in a temp file are read from the erf file instead.
+         */
+        private void deleteTempFiles(){
+            for ( final Map.Entry<ResourceID, Object> e : resources.entrySet() ){
+                if ( tempFiles.contains( e.getValue() ) ){
+                    e.setValue( writtenFiles.remove( e.getKey() ).entry );
+                }
+            }
+            for ( final File f : tempFiles )
+                f.delete();
+            tempFiles.clear();
+        }
+
+        /** Returns {@code true} until the batch is committed or rolled back. */
+        public boolean isOpen(){
+            return batch == this;
+        }
+
+        /** Rolls back the batch unless it was committed. */
+        @Override
+        public void close(){
+            if ( isOpen() )
+                rollback();
+        }
+
+        private void checkOpen(){
+            if ( !isOpen() )
+                throw new IllegalStateException( "batch has ended" );
+        }
+    }
+
     public File getFile() {
         return file;
     }
@@ -18,6 +18,7 @@ import javax.imageio.stream.MemoryCacheImageInputStream;
 
 import org.jl.nwn.NwnLanguage;
 import org.jl.nwn.Version;
+import org.jl.nwn.resource.ByteBufferImageInputStream;
 
 public abstract class AbstractGffReader<Fld, Strct extends Fld, Lst extends Fld> {
 
@@ -94,6 +95,16 @@ public abstract class AbstractGffReader<Fld, Strct extends Fld, Lst extends Fld>
         return doLoad(null);
     }
 
+    /**
+     * Reads a gff file from the remaining bytes of a buffer, e.g. one returned
+     * by {@link org.jl.nwn.resource.NwnRepository#getResourceBuffer}. The
+     * bytes are read in place.
+     */
+    public Object load(ByteBuffer bb) throws IOException{
+        in = new ByteBufferImageInputStream(bb);
+        return doLoad(null);
+    }
+
     private Object doLoad(File file) throws IOException{
 
         fieldList.clear();
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 import org.jl.nwn.NwnLanguage;
 import org.jl.nwn.Version;
@@ -107,4 +108,9 @@ public class DefaultGffReader extends AbstractGffReader<GffField, GffStruct, Gff
     public GffContent load( InputStream in ) throws IOException{
         return (GffContent) super.load(in);
     }
+
+    @Override
+    public GffContent load( ByteBuffer bb ) throws IOException{
+        return (GffContent) super.load(bb);
+    }
 }
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -93,6 +94,12 @@ public class XmlGffBuilder extends AbstractGffReader<Element, Element, Element>{
         return (Document) super.load(is);
     }
 
+    @Override
+    public Document load(ByteBuffer bb) throws IOException{
+        doc = docBuilder.newDocument();
+        return (Document) super.load(bb);
+    }
+
     @Override
     public Element mkStruct(String label, int structID) {
         Element e = doc.createElement("Struct");
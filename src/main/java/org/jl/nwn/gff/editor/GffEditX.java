@@ -28,7 +28,10 @@ import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.EventObject;
+import java.util.List;
 import java.util.logging.Level;
 
 import javax.swing.AbstractAction;
@@ -103,6 +106,7 @@ import org.jl.nwn.tlk.TlkLookup;
 import org.jl.swing.Actions;
 import org.jl.swing.HexEdit;
 import org.jl.swing.I18nUtil;
+import org.jl.swing.ReplaceAllWorker;
 import org.jl.swing.TableSearchAndReplace;
 import org.jl.swing.table.FormattedCellEditor;
 import org.jl.swing.table.MappedCellEditor;
@@ -1011,6 +1015,43 @@ public class GffEditX extends SimpleFileEditorPanelX implements ClipboardOwner {
             treeTable.expandRow(row);
             return super.nextCell();
         }
+
+        @Override protected Mutator getMutator(){
+            return model.getMutator();
+        }
+
+        /**
+         * Replaces matches in the string values of the selected fields or of
+         * all fields of the tree, including fields of collapsed nodes.
+         */
+        @Override protected ReplaceAllWorker.Cells replaceAllCells(){
+            final List<GffField<?>> fields = new ArrayList<>();
+            if ( rbSearchSelection.isSelected() ){
+                for ( int row : treeTable.getSelectedRows() )
+                    fields.add( (GffField<?>) treeTable.getPathForRow(row).getLastPathComponent() );
+            } else {
+                final ArrayDeque<GffField<?>> stack = new ArrayDeque<>();
+                stack.push( model.getRoot() );
+                while ( !stack.isEmpty() ){
+                    final GffField<?> f = stack.pop();
+                    fields.add( f );
+                    for ( int i = f.getChildCount() - 1; i > -1; i-- )
+                        stack.push( f.getChild(i) );
+                }
+            }
+            return new ReplaceAllWorker.Cells(){
+                @Override public int size(){
+                    return fields.size();
+                }
+                @Override public String getText( int cell ){
+                    final Object data = fields.get(cell).getData();
+                    return data instanceof String ? (String) data : null;
+                }
+                @Override public void setText( int cell, String text ){
+                    model.setValueAt( text, fields.get(cell), 2 );
+                }
+            };
+        }
     }
 
     public void addUndoableEditListener( UndoableEditListener l ){
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import java.util.HashMap;
@@ -23,11 +24,11 @@ import java.util.regex.Pattern;
 
 import org.jl.nwn.NwnLanguage;
 import org.jl.nwn.Version;
+import org.jl.nwn.erf.ErfBuilder;
 import org.jl.nwn.erf.ErfFile;
 import org.jl.nwn.gff.GffCExoLocString;
 import org.jl.nwn.resource.NwnRepository;
 import org.jl.nwn.resource.ResourceID;
-import org.jl.nwn.tlk.DefaultTlkReader;
 import org.jl.nwn.tlk.TlkContent;
 import org.jl.nwn.tlk.TlkLookup;
 import org.jl.nwn.tlk.TlkTool;
@@ -362,12 +363,12 @@ public class Patcher {
                     patchName
                         .substring(0, patchName.length() - 4)
                         .toLowerCase();
-                final InputStream is = sourceRep.getResource(new ResourceID(resName, "2da"));
-                if (is == null) {
+                final ByteBuffer bb = sourceRep.getResourceBuffer(new ResourceID(resName, "2da"));
+                if (bb == null) {
                     System.out.println("couldn't find source file for " + resName + ".2da");
                 } else {
                     System.out.println("loading source : " + resName);
-                    daSourceTables[i] = new TwoDaTable(is);
+                    daSourceTables[i] = new TwoDaTable(bb);
                 }
             }
 
@@ -414,9 +415,7 @@ public class Patcher {
                 } else {
                     System.out.println("creating patched tlk file ...");
                     tlkOutDir.mkdirs();
-                    TlkContent src =
-                        new DefaultTlkReader(Version.getDefaultVersion())
-                        .load( tlkSourceFile, null );
+                    TlkContent src = TlkContent.map( tlkSourceFile, Version.getDefaultVersion() );
                     System.out.println("source tlk loaded");
                     File tlkDiff = new File( patchDir, tlkUpdateFilename );
                     if ( tlkDiff.exists() ){
@@ -430,7 +429,7 @@ public class Patcher {
                     }
                     tlkOffset = src.size();
                     System.out.println("appending patch.tlk ( at " + tlkOffset + " )");
-                    TlkContent patch = new DefaultTlkReader(Version.getDefaultVersion()).load( tlkPatchFile, null );
+                    TlkContent patch = TlkContent.map( tlkPatchFile, Version.getDefaultVersion() );
                     patchinfo.write( tlkSourceFile.getName() + " " + src.size() + "-" + (src.size()+patch.size()-1) + lineSeparator );
                     src.addAll( patch );
                     src.saveAs( tlkOutputFile, Version.getDefaultVersion() );
@@ -636,13 +635,13 @@ public class Patcher {
                 System.out.println("writing hak file");
                 File hakDir = new File(outputDir, "hak");
                 hakDir.mkdir();
-                ErfFile erf = new ErfFile( new File(hakDir, patchDir.getName() + ".hak"), ErfFile.HAK, new GffCExoLocString("foo") );
+                final ErfBuilder builder = new ErfBuilder( ErfFile.HAK, new GffCExoLocString("foo") );
                 for (final File file : outputDir.listFiles()) {
                     if (file.isFile()) {
-                        erf.putResource(file);
+                        builder.addFile(file);
                     }
                 }
-                erf.write();
+                builder.write( new File(hakDir, patchDir.getName() + ".hak") ).close();
             }
             patchinfo.flush();
         }
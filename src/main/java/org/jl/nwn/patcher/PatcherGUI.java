@@ -368,48 +368,59 @@ public class PatcherGUI extends JFrame {
 			ioex.printStackTrace();
 			return;
 		}
-		if ( useSourceDir.isSelected() ){
-			File oDir = new File( sourceDir.getText() );
-			if( oDir.exists() )
-				rep = new NwnChainRepository( new NwnDirRepository( oDir ), rep );
-			else {
-				popupErrorMsg( "Specified patcher override dir does not exist : " + oDir );
+		// the repositories are created for this build only
+		try {
+			if ( useSourceDir.isSelected() ){
+				File oDir = new File( sourceDir.getText() );
+				if( oDir.exists() )
+					rep = new NwnChainRepository( new NwnDirRepository( oDir ), rep );
+				else {
+					popupErrorMsg( "Specified patcher override dir does not exist : " + oDir );
+					return;
+				}
+			}
+			File buildDir = new File( applypatch.getText() );
+			if ( !buildDir.exists() ){
+				popupErrorMsg( "Patch dir does not exist : " + applypatch.getText() );
 				return;
 			}
-		}
-		File buildDir = new File( applypatch.getText() );
-		if ( !buildDir.exists() ){
-			popupErrorMsg( "Patch dir does not exist : " + applypatch.getText() );
-			return;
-		}
-		File tlkFile = new File( sourceTlk.getText() );
-		if ( !tlkFile.exists() ){
-			popupErrorMsg( "Tlk file does not exist : " + sourceTlk.getText() );
-			return;
-		}
-		try{
-			Patcher.applyPatch( buildDir, rep, repConf.getNwnHome(), tlkFile, true, true, isUserTlk.isSelected() );
-		} catch ( IOException ioex ){
-			popupErrorMsg( "Patch build failed : " + ioex );
-			return;
-		}
-		if ( useOutputTlk.isSelected() ){
-			File tlk = Patcher.getOutputTlk( buildDir );
-			//new File( new File( new File( buildDir, "out" ), "tlk" ), "dialog.tlk" );
-			try {
-			Patcher.filemove( tlk, new File( outputTlk.getText() ) );
-		} catch ( IOException ioex ){
-			popupErrorMsg( "Error moving tlk file : " + ioex );
-			return;
+			File tlkFile = new File( sourceTlk.getText() );
+			if ( !tlkFile.exists() ){
+				popupErrorMsg( "Tlk file does not exist : " + sourceTlk.getText() );
+				return;
+			}
+			try{
+				Patcher.applyPatch( buildDir, rep, repConf.getNwnHome(), tlkFile, true, true, isUserTlk.isSelected() );
+			} catch ( IOException ioex ){
+				popupErrorMsg( "Patch build failed : " + ioex );
+				return;
+			}
+			if ( useOutputTlk.isSelected() ){
+				File tlk = Patcher.getOutputTlk( buildDir );
+				//new File( new File( new File( buildDir, "out" ), "tlk" ), "dialog.tlk" );
+				try {
+				Patcher.filemove( tlk, new File( outputTlk.getText() ) );
+			} catch ( IOException ioex ){
+				popupErrorMsg( "Error moving tlk file : " + ioex );
+				return;
+				}
+			}
+			/*
+			if ( moveHakToHakDir.isSelected() ){
+				File hakDir = new File( repConf.getNwnHome(), "hak" );
+				// argh! different file name if repackage is selected
+				//File hak =
+			}
+			*/
+		} finally {
+			if ( rep != null ){
+				try {
+					rep.close();
+				} catch ( IOException ioex ){
+					ioex.printStackTrace();
+				}
 			}
 		}
-		/*
-		if ( moveHakToHakDir.isSelected() ){
-			File hakDir = new File( repConf.getNwnHome(), "hak" );
-			// argh! different file name if repackage is selected
-			//File hak =
-		}
-		*/
 	}
 
 	/**
@@ -429,10 +440,12 @@ public class PatcherGUI extends JFrame {
 		System.out.println( "files : " + files.length );
 		System.out.println( hakFile );
 		ErfFile baseHak = new ErfFile( hakFile );
-        for (final File file : files) {
-            baseHak.putResource(file);
-        }
-		baseHak.write( outputHak );
+		try ( ErfFile.Batch batch = baseHak.begin() ){
+			for (final File file : files) {
+				batch.put(file);
+			}
+			batch.commit( outputHak );
+		}
 	}
 
 	private JComponent setupJoinPanel(){
@@ -1,8 +1,13 @@
 package org.jl.nwn.resource;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.Iterator;
 
 public abstract class AbstractRepository implements NwnRepository{
@@ -17,6 +22,67 @@ public abstract class AbstractRepository implements NwnRepository{
         return getResource(ResourceID.forFileName(resourceName));
     }
 
+    /**
+     * Reads the stream returned by {@link #getResource(ResourceID)}, subclasses
+     * whose streams are not independent of each other must override this.
+     */
+    @Override
+    public ByteBuffer readResource(ResourceID id) throws IOException {
+        try (final InputStream is = getResource(id)) {
+            if (is == null) {
+                return null;
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(getResourceSize(id), 32));
+            final byte[] buf = new byte[8192];
+            int len;
+            while ((len = is.read(buf)) != -1) {
+                out.write(buf, 0, len);
+            }
+            return ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Returns a read only view of {@link #readResource}, the buffer is not
+     * shared with anyone else.
+     */
+    @Override
+    public ByteBuffer getResourceBuffer(ResourceID id) throws IOException {
+        final ByteBuffer bb = readResource(id);
+        return bb == null ? null : bb.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns a read only little endian slice of a buffer.
+     *
+     * @param bb buffer, e.g. a mapped file
+     * @param offset position of the slice in {@code bb}
+     * @param length length of the slice
+     */
+    protected static ByteBuffer slice(ByteBuffer bb, int offset, int length) {
+        final ByteBuffer dup = bb.asReadOnlyBuffer();
+        dup.limit(offset + length);
+        dup.position(offset);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads bytes of a file without changing the position of the channel, so
+     * that several threads can read from the file.
+     *
+     * @return little endian buffer holding the bytes
+     */
+    protected static ByteBuffer read(FileChannel fc, long position, int length) throws IOException {
+        final ByteBuffer bb = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (bb.hasRemaining()) {
+            if (fc.read(bb, position + bb.position()) == -1) {
+                throw new EOFException("Unexpected end of file at position " + (position + bb.position()));
+            }
+        }
+        bb.flip();
+        return bb;
+    }
+
     @Override
     public boolean contains(String resourceName){
         return contains(ResourceID.forFileName(resourceName));
@@ -32,6 +98,12 @@ public abstract class AbstractRepository implements NwnRepository{
         return 0;
     }
 
+    /** Returns 0, subclasses whose resources can change must override this. */
+    @Override
+    public long getModificationStamp() {
+        return 0;
+    }
+
     @Override
     public Iterator<ResourceID> iterator(){
         return getResourceIDs().iterator();
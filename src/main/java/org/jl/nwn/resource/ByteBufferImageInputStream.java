@@ -0,0 +1,46 @@
+package org.jl.nwn.resource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * Create an {@link ImageInputStream} that reads the remaining bytes of a
+ * {@link ByteBuffer}, stream position 0 is the position of the buffer. Seeking
+ * just changes the index of the next byte to read, nothing is cached.
+ */
+public class ByteBufferImageInputStream extends ImageInputStreamImpl {
+    private final ByteBuffer bb;
+
+    public ByteBufferImageInputStream(ByteBuffer bb) {
+        this.bb = bb.slice();
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if ( streamPos >= bb.limit() ) return -1;
+        return bb.get( (int) streamPos++ ) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if ( len == 0 ) return 0;
+        if ( streamPos >= bb.limit() ) return -1;
+        final int n = (int) Math.min( len, bb.limit() - streamPos );
+        bb.position( (int) streamPos );
+        bb.get( b, off, n );
+        streamPos += n;
+        return n;
+    }
+
+    @Override
+    public long length(){
+        return bb.limit();
+    }
+}
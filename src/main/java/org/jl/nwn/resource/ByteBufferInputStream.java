@@ -0,0 +1,54 @@
+package org.jl.nwn.resource;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Create an {@link InputStream} that reads the remaining bytes of a
+ * {@link ByteBuffer}. The buffer itself is not changed.
+ */
+public class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer bb;
+    private int markPos;
+
+    public ByteBufferInputStream(ByteBuffer bb) {
+        this.bb = bb.slice();
+    }
+
+    @Override
+    public int read() {
+        return bb.hasRemaining() ? bb.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if ( len == 0 ) return 0;
+        if ( !bb.hasRemaining() ) return -1;
+        final int n = Math.min( len, bb.remaining() );
+        bb.get( b, off, n );
+        return n;
+    }
+
+    @Override
+    public int available(){
+        return bb.remaining();
+    }
+
+    @Override
+    public boolean markSupported(){
+        return true;
+    }
+
+    @Override
+    public void mark( int readLimit ){ markPos = bb.position(); }
+
+    @Override
+    public void reset(){ bb.position( markPos ); }
+
+    @Override
+    public long skip( long skip ){
+        final int r = (int) Math.max( 0, Math.min( skip, bb.remaining() ) );
+        bb.position( bb.position() + r );
+        return r;
+    }
+}
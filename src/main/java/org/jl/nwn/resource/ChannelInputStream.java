@@ -0,0 +1,103 @@
+package org.jl.nwn.resource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Create an {@link InputStream} that reads a portion of a {@link FileChannel}.
+ * Only positional reads are used, so the channel position is never changed
+ * and any number of streams can read from the same channel concurrently.
+ */
+public class ChannelInputStream extends InputStream {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final FileChannel fc;
+    private final long end;
+    private long markPos;
+    /** File position of the next byte returned by the stream. */
+    private long streamPosition;
+    /** Bytes read ahead from {@code streamPosition}, allocated on first use. */
+    private ByteBuffer buffer;
+
+    public ChannelInputStream(FileChannel fc, long start, long end) {
+        this.fc = fc;
+        this.end = end;
+        streamPosition = start;
+        markPos = start;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if ( buffer == null || !buffer.hasRemaining() ){
+            if ( !(streamPosition < end) ) return -1;
+            fill();
+        }
+        streamPosition++;
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ( len == 0 ) return 0;
+        if ( buffer != null && buffer.hasRemaining() ){
+            final int n = Math.min( len, buffer.remaining() );
+            buffer.get( b, off, n );
+            streamPosition += n;
+            return n;
+        }
+        if ( !(streamPosition < end) ) return -1;
+        // large reads go directly into the destination array
+        final ByteBuffer dst = ByteBuffer.wrap( b, off, (int) Math.min( len, end - streamPosition ) );
+        final int r = readAt( dst, streamPosition );
+        streamPosition += r;
+        return r;
+    }
+
+    private void fill() throws IOException {
+        if ( buffer == null )
+            buffer = ByteBuffer.allocate( (int) Math.min( BUFFER_SIZE, end - streamPosition ) );
+        buffer.clear();
+        buffer.limit( (int) Math.min( buffer.capacity(), end - streamPosition ) );
+        readAt( buffer, streamPosition );
+        buffer.flip();
+    }
+
+    private int readAt(ByteBuffer dst, long position) throws IOException {
+        final int r = fc.read( dst, position );
+        if ( r == -1 )
+            throw new EOFException( "unexpected end of file at position " + position );
+        return r;
+    }
+
+    @Override
+    public int available(){
+        return (int)(end - streamPosition);
+    }
+
+    @Override
+    public boolean markSupported(){
+        return true;
+    }
+
+    @Override
+    public void mark( int readLimit ){ markPos = streamPosition; }
+
+    @Override
+    public void reset() throws IOException{
+        streamPosition = markPos;
+        if ( buffer != null )
+            buffer.limit( 0 );
+    }
+
+    @Override
+    public long skip( long skip ) throws IOException{
+        final long r = Math.max( 0, Math.min( skip, end - streamPosition ) );
+        streamPosition += r;
+        if ( buffer != null )
+            buffer.position( (int) Math.min( buffer.limit(), buffer.position() + r ) );
+        return r;
+    }
+}
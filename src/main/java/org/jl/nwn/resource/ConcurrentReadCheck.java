@@ -0,0 +1,142 @@
+package org.jl.nwn.resource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import org.jl.nwn.bif.BifRepository;
+import org.jl.nwn.erf.ErfFile;
+
+/**
+ * Command line tool that reads the resources of a repository from several
+ * threads and checks the data, not part of the repository API.
+ */
+final class ConcurrentReadCheck {
+
+    private ConcurrentReadCheck() {}
+
+    /**
+     * Stress check of the thread-safe read contract of a repository. Every
+     * resource is read once with {@link NwnRepository#getResource(ResourceID)},
+     * then the threads read random resources with
+     * {@link NwnRepository#readResource} and compare size and checksum.
+     *
+     * @param rep repository to check
+     * @param threads number of reading threads
+     * @param reads number of reads per thread
+     * @return number of reads that returned wrong data
+     */
+    static int checkConcurrentReads(NwnRepository rep, int threads, int reads) throws IOException {
+        final ResourceID[] ids = rep.getResourceIDs().toArray(new ResourceID[0]);
+        final long[] checksums = new long[ids.length];
+        final int[] sizes = new int[ids.length];
+        final byte[] buf = new byte[8192];
+        for (int i = 0; i < ids.length; i++) {
+            final CRC32 crc = new CRC32();
+            try (final InputStream is = rep.getResource(ids[i])) {
+                int len;
+                while ((len = is.read(buf)) != -1) {
+                    crc.update(buf, 0, len);
+                    sizes[i] += len;
+                }
+            }
+            checksums[i] = crc.getValue();
+        }
+        if (ids.length == 0) {
+            return 0;
+        }
+
+        final AtomicInteger errors = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final long seed = t;
+                tasks.add(pool.submit(() -> {
+                    final Random random = new Random(seed);
+                    final CRC32 crc = new CRC32();
+                    for (int n = 0; n < reads; n++) {
+                        final int i = random.nextInt(ids.length);
+                        final ByteBuffer bb = rep.readResource(ids[i]);
+                        crc.reset();
+                        crc.update(bb.duplicate());
+                        if (bb.remaining() != sizes[i] || crc.getValue() != checksums[i]) {
+                            System.err.println("wrong data for " + ids[i] + " : " + bb.remaining() + " bytes");
+                            errors.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> f : tasks) {
+                f.get();
+            }
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+        return errors.get();
+    }
+
+    /**
+     * Opens a repository by file type : directory, zip file, {@code .key}
+     * file of a bif repository, chain repository properties file or erf file.
+     */
+    private static NwnRepository open(File file) throws IOException {
+        final String name = file.getName().toLowerCase();
+        if (file.isDirectory()) {
+            return new NwnDirRepository(file);
+        }
+        if (name.endsWith(".zip")) {
+            return new ZipRepository(file);
+        }
+        if (name.endsWith(".key")) {
+            return new BifRepository(file.getAbsoluteFile().getParentFile(), new String[]{file.getName()});
+        }
+        if (name.endsWith(".properties")) {
+            try (final FileInputStream is = new FileInputStream(file)) {
+                final Properties p = new Properties();
+                p.load(is);
+                return Repositories.loadRepositories(p);
+            }
+        }
+        return new ErfFile(file);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println(
+                    "usage : ConcurrentReadCheck <repository> [threads] [reads per thread]\n"
+                  + "reads resources of a repository from several threads and checks the data\n"
+                  + "<repository> is a directory, zip, erf, .key or repository .properties file"
+            );
+            return;
+        }
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final int reads = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        try (final NwnRepository rep = open(new File(args[0]))) {
+            final long start = System.currentTimeMillis();
+            final int errors = checkConcurrentReads(rep, threads, reads);
+            System.out.printf("%d threads, %d reads : %d errors, %d ms\n",
+                    threads, threads * reads, errors, System.currentTimeMillis() - start);
+            if (errors != 0) {
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -4,23 +4,43 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Chain of responsibility for Repositories.
+ * <p>
+ * The repository a resource is found in is remembered, as is the absence of
+ * a resource, so repeated lookups do not ask every repository again. The
+ * cache is cleared when the {@link NwnRepository#getModificationStamp
+ * modification stamp} of any repository changes.
  */
 public class NwnChainRepository extends AbstractRepository {
 
+    /** Number of cached lookups at which the cache is cleared. */
+    private static final int MAX_CACHE_SIZE = 100000;
+    /** Cache value of resources found in no repository. */
+    private static final int NOT_FOUND = -1;
+
     private final NwnRepository[] repositories;
+    /**
+     * Index of the repository containing a resource or {@link #NOT_FOUND},
+     * keys have lower case names.
+     */
+    private final ConcurrentHashMap<ResourceID, Integer> resolved = new ConcurrentHashMap<>();
+    /** Modification stamp of the repositories when the cache was filled. */
+    private volatile long cacheStamp;
 
     public NwnChainRepository(NwnRepository... repositories) {
         if ( repositories == null || repositories.length == 0 )
             throw new IllegalArgumentException("Repository list must not be empty or null : " + Arrays.toString(repositories));
         this.repositories = repositories;
+        cacheStamp = getModificationStamp();
     }
 
     public NwnChainRepository(Collection<? extends NwnRepository> reps) {
@@ -29,36 +49,66 @@ public class NwnChainRepository extends AbstractRepository {
 
     @Override
     public InputStream getResource(ResourceID id) throws IOException {
-        InputStream is = null;
-        for ( int i = 0; i < repositories.length && is == null; i++ )
-            is = repositories[i].getResource(id);
-        return is;
+        final NwnRepository r = findRepository(id);
+        return r != null ? r.getResource(id) : null;
+    }
+
+    @Override
+    public ByteBuffer readResource(ResourceID id) throws IOException {
+        final NwnRepository r = findRepository(id);
+        return r != null ? r.readResource(id) : null;
+    }
+
+    @Override
+    public ByteBuffer getResourceBuffer(ResourceID id) throws IOException {
+        final NwnRepository r = findRepository(id);
+        return r != null ? r.getResourceBuffer(id) : null;
     }
 
     @Override
     public File getResourceLocation(ResourceID id) {
-        File f = null;
-        for ( int i = 0; i < repositories.length && f == null; i++ )
-            if ( repositories[i].contains(id) )
-                return repositories[i].getResourceLocation(id);
-        return f;
+        final NwnRepository r = findRepository(id);
+        return r != null ? r.getResourceLocation(id) : null;
     }
 
     @Override
     public boolean contains(ResourceID id) {
-        boolean found = false;
-        for ( int i = 0; i < repositories.length && !found; i++ )
-            found = repositories[i].contains(id);
-        return found;
+        return findRepository(id) != null;
     }
 
-    private NwnRepository findRepository( ResourceID id ){
+    /** Returns a combination of the modification stamps of all repositories. */
+    @Override
+    public long getModificationStamp() {
+        long stamp = 0;
         for (final NwnRepository repo : repositories) {
-            if (repo.contains(id)) {
-                return repo;
+            stamp = stamp * 31 + repo.getModificationStamp();
+        }
+        return stamp;
+    }
+
+    /**
+     * Returns the first repository that contains the resource, using the
+     * cache of earlier lookups.
+     */
+    private NwnRepository findRepository( ResourceID id ){
+        final long stamp = getModificationStamp();
+        if (stamp != cacheStamp || resolved.size() > MAX_CACHE_SIZE) {
+            resolved.clear();
+            cacheStamp = stamp;
+        }
+        final ResourceID key = new ResourceID(id.getName().toLowerCase(), id.getType());
+        Integer index = resolved.get(key);
+        if (index == null) {
+            index = NOT_FOUND;
+            for (int i = 0; i < repositories.length; i++) {
+                if (repositories[i].contains(id)) {
+                    index = i;
+                    break;
+                }
             }
+            resolved.put(key, index);
         }
-        return null;
+        return index == NOT_FOUND ? null : repositories[index];
     }
 
     @Override
@@ -83,7 +133,9 @@ public class NwnChainRepository extends AbstractRepository {
      */
     @Override
     public OutputStream putResource(ResourceID id) throws IOException, UnsupportedOperationException {
-        return repositories[0].putResource(id);
+        final OutputStream out = repositories[0].putResource(id);
+        resolved.clear();
+        return out;
     }
 
     /**
@@ -6,14 +6,62 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
+/**
+ * Repository of the files in a directory.
+ * <p>
+ * The directory is listed once, the files are kept in a map from lower case
+ * file name to actual file name, so lookups are case insensitive and need no
+ * further directory listings. The map is kept up to date with a
+ * {@link WatchService}, whose events are applied before every lookup; files
+ * created or deleted by other programs are seen as soon as the watch service
+ * reports them. If the file system cannot be watched the directory is listed
+ * again when its modification time changes.
+ * <p>
+ * All instances share a single watch service, which is created when the
+ * first directory is listed, so repositories that are never closed only keep
+ * their watch key registered and no watch service of their own.
+ */
 public class NwnDirRepository extends AbstractRepository {
 
     private final File dir;
 
+    /** Actual file names by lower case file name, {@code null} until first use. */
+    private volatile Map<String, String> files;
+    /** Sorted resource ids, {@code null} if not yet computed for the current files. */
+    private volatile Set<ResourceID> resourceIDs;
+    private WatchKey watchKey;
+    /** Events of {@link #watchKey} not yet applied to the file map. */
+    private final Queue<WatchEvent<?>> pendingEvents = new ConcurrentLinkedQueue<>();
+    /** Modification time of the directory when it was listed, used without watcher. */
+    private long listedModified;
+    /** Incremented whenever a file is added or removed. */
+    private volatile long modificationCount;
+
     public NwnDirRepository(File dir) {
         this.dir = dir;
     }
@@ -24,28 +72,179 @@ public class NwnDirRepository extends AbstractRepository {
         return f != null ? new FileInputStream(f) : null;
     }
 
+    @Override
+    public ByteBuffer readResource(ResourceID id) throws IOException {
+        final File f = findFile(id);
+        if (f == null) {
+            return null;
+        }
+        try (final FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            return read(fc, 0, (int) fc.size());
+        }
+    }
+
     /**
-     * Return the File containing the given resource. If no file with the exact
-     * name returned by {@link ResourceID#getFileName() id.getFileName()} is found,
-     * the method will perform a case insensitive search for the file.
+     * Return the File containing the given resource. The file name is
+     * compared ignoring case.
      *
      * @return File object pointing to the resource identified by id or {@code null}
      *         if no such file is found
      */
     private File findFile(ResourceID id) {
-        final String fName = id.getFileName();
-        final File f = new File(dir, fName);
-        return f.isFile() ? f : findFileIgnoreCase(fName);
+        final String name = update().get(id.getFileName().toLowerCase(Locale.ROOT));
+        return name != null ? new File(dir, name) : null;
     }
 
-    private File findFileIgnoreCase(String fileName) {
-        for (final String name : dir.list()) {
-            if (name.equalsIgnoreCase(fileName)) {
-                final File f = new File(dir, name);
-                return f.isFile() ? f : null;
+    /**
+     * Lists the directory on first use, afterwards applies the changes
+     * reported since the last call.
+     *
+     * @return the current file map
+     */
+    private synchronized Map<String, String> update() {
+        if (files == null) {
+            startWatching();
+            list();
+        } else if (watchKey != null) {
+            final boolean valid = Watcher.poll(watchKey);
+            boolean overflow = false;
+            WatchEvent<?> event;
+            while ((event = pendingEvents.poll()) != null) {
+                if (event.kind() == OVERFLOW) {
+                    overflow = true;
+                } else {
+                    final String name = ((Path) event.context()).getFileName().toString();
+                    if (event.kind() == ENTRY_CREATE) {
+                        if (new File(dir, name).isFile()) {
+                            addFile(name);
+                        }
+                    } else if (event.kind() == ENTRY_DELETE) {
+                        removeFile(name);
+                    }
+                }
+            }
+            if (!valid) {
+                // directory is gone or cannot be watched any longer
+                stopWatching();
+                overflow = true;
             }
+            if (overflow) {
+                list();
+            }
+        } else if (dir.lastModified() != listedModified) {
+            list();
         }
-        return null;
+        return files;
+    }
+
+    private void startWatching() {
+        try {
+            watchKey = Watcher.register(this);
+        } catch (IOException | UnsupportedOperationException ex) {
+            System.err.println("cannot watch " + dir + ", changes are detected by modification time : " + ex);
+            stopWatching();
+        }
+    }
+
+    private void stopWatching() {
+        if (watchKey != null) {
+            Watcher.unregister(this, watchKey);
+        }
+        watchKey = null;
+        pendingEvents.clear();
+    }
+
+    /**
+     * Watch service shared by all instances. Instances of the same directory
+     * get the same watch key, so the events of a key are handed to the
+     * pending events of every instance using it.
+     */
+    private static final class Watcher {
+        /** Created on first use, guarded by {@code Watcher.class}. */
+        private static WatchService service;
+        /** Instances by watch key, guarded by {@code Watcher.class}. */
+        private static final Map<WatchKey, List<NwnDirRepository>> users = new HashMap<>();
+
+        private Watcher() {}
+
+        static synchronized WatchKey register(NwnDirRepository rep) throws IOException {
+            if (service == null) {
+                service = FileSystems.getDefault().newWatchService();
+            }
+            final WatchKey key = rep.dir.toPath().register(service, ENTRY_CREATE, ENTRY_DELETE);
+            users.computeIfAbsent(key, k -> new ArrayList<>()).add(rep);
+            return key;
+        }
+
+        /**
+         * Hands the events of a key to all instances using it.
+         *
+         * @return false if the key is no longer valid
+         */
+        static synchronized boolean poll(WatchKey key) {
+            final List<WatchEvent<?>> events = key.pollEvents();
+            final List<NwnDirRepository> reps = users.get(key);
+            if (reps != null && !events.isEmpty()) {
+                for (final NwnDirRepository r : reps) {
+                    r.pendingEvents.addAll(events);
+                }
+            }
+            return key.reset();
+        }
+
+        static synchronized void unregister(NwnDirRepository rep, WatchKey key) {
+            final List<NwnDirRepository> reps = users.get(key);
+            if (reps != null && reps.remove(rep) && reps.isEmpty()) {
+                users.remove(key);
+                key.cancel();
+            }
+        }
+    }
+
+    /** Lists the directory. */
+    private void list() {
+        listedModified = dir.lastModified();
+        final Map<String, String> m = new ConcurrentHashMap<>();
+        if (dir.isDirectory()) {
+            try (final DirectoryStream<Path> ds = Files.newDirectoryStream(dir.toPath())) {
+                for (final Path p : ds) {
+                    if (Files.isRegularFile(p)) {
+                        final String name = p.getFileName().toString();
+                        m.putIfAbsent(name.toLowerCase(Locale.ROOT), name);
+                    }
+                }
+            } catch (IOException ioex) {
+                System.err.println("cannot list " + dir + " : " + ioex);
+            }
+        }
+        files = m;
+        changed();
+    }
+
+    private void addFile(String name) {
+        if (files.putIfAbsent(name.toLowerCase(Locale.ROOT), name) == null) {
+            changed();
+        }
+    }
+
+    private void removeFile(String name) {
+        if (files.remove(name.toLowerCase(Locale.ROOT), name)) {
+            // another file may differ from the removed one only in case
+            final File[] others = dir.listFiles((d, n) -> n.equalsIgnoreCase(name));
+            if (others != null) {
+                for (final File f : others) {
+                    if (f.isFile()) {
+                        files.putIfAbsent(name.toLowerCase(Locale.ROOT), f.getName());
+                    }
+                }
+            }
+            changed();
+        }
+    }
+
+    private void changed() {
+        resourceIDs = null;
+        modificationCount++;
     }
 
     @Override
@@ -60,18 +259,29 @@ public class NwnDirRepository extends AbstractRepository {
 
     @Override
     public OutputStream putResource(ResourceID id) throws IOException {
-        return new FileOutputStream(new File(dir, id.getFileName()));
+        final File f = new File(dir, id.getFileName());
+        final OutputStream out = new FileOutputStream(f);
+        synchronized (this) {
+            if (files != null) {
+                addFile(f.getName());
+            }
+        }
+        return out;
     }
 
     @Override
-    public Set<ResourceID> getResourceIDs() {
-        final TreeSet<ResourceID> s = new TreeSet<>();
-        for (final File file : dir.listFiles()) {
-            if (file.isFile()) {
-                s.add(ResourceID.forFile(file));
+    public synchronized Set<ResourceID> getResourceIDs() {
+        final Map<String, String> m = update();
+        Set<ResourceID> ids = resourceIDs;
+        if (ids == null) {
+            final TreeSet<ResourceID> s = new TreeSet<>();
+            for (final String name : m.values()) {
+                s.add(ResourceID.forFileName(name));
             }
+            ids = Collections.unmodifiableSet(s);
+            resourceIDs = ids;
         }
-        return Collections.unmodifiableSet(s);
+        return ids;
     }
 
     @Override
@@ -85,9 +295,21 @@ public class NwnDirRepository extends AbstractRepository {
         return f != null ? f.lastModified() : 0;
     }
 
+    /** Returns a counter of the files added to or removed from the directory. */
+    @Override
+    public long getModificationStamp() {
+        update();
+        return modificationCount;
+    }
+
     @Override
     public int getResourceSize(ResourceID id) {
         final File f = findFile(id);
         return f != null ? (int)f.length() : 0;
     }
+
+    @Override
+    public synchronized void close() throws IOException {
+        stopWatching();
+    }
 }
@@ -5,11 +5,16 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Set;
 
 /**
  * Simple interface for retrieving & writing resources. In NWN resources are usually
  * located in bif files, erf files or directories.
+ * <p>
+ * Reading is thread-safe : {@link #readResource}, {@link #contains(ResourceID)}
+ * and {@link #getResourceSize} may be called by any number of threads at once,
+ * as long as the repository is not modified or closed meanwhile.
  */
 public interface NwnRepository extends Iterable<ResourceID>, Closeable {
     /**
@@ -24,6 +29,30 @@ public interface NwnRepository extends Iterable<ResourceID>, Closeable {
      */
     public InputStream getResource( String resourceName ) throws IOException;
 
+    /**
+     * Reads a resource into a new buffer. Implementations read with absolute
+     * file positions and do not share any state between calls, so several
+     * threads can read resources at once.
+     *
+     * @return little endian buffer holding the resource, position is 0 and
+     *         limit is the resource size; {@code null} if no such resource
+     *         is found
+     */
+    public ByteBuffer readResource( ResourceID id ) throws IOException;
+
+    /**
+     * Returns the bytes of a resource without copying them where possible,
+     * e.g. as a slice of a memory mapped file. Parsers can read the buffer
+     * directly, see {@link ByteBufferImageInputStream} and
+     * {@link ByteBufferInputStream}. The buffer must not be used after the
+     * repository was modified or closed.
+     *
+     * @return read only little endian buffer holding the resource, position
+     *         is 0 and limit is the resource size; {@code null} if no such
+     *         resource is found
+     */
+    public ByteBuffer getResourceBuffer( ResourceID id ) throws IOException;
+
     /**
      * @return {@code null} if the repository contains no such resource
      */
@@ -41,6 +70,13 @@ public interface NwnRepository extends Iterable<ResourceID>, Closeable {
 
     public long lastModified( ResourceID id );
 
+    /**
+     * Returns a value that changes whenever resources are added to or removed
+     * from this repository, so that lookups can be cached until it changes.
+     * Repositories that are never modified return a constant.
+     */
+    public long getModificationStamp();
+
     /**
      * Retrieves the size of the resource in bytes.
      *
@@ -145,7 +145,7 @@ public final class Repositories {
         return f;
     }
 
-    private static NwnChainRepository loadRepositories(Properties props) throws IOException {
+    static NwnChainRepository loadRepositories(Properties props) throws IOException {
         final ArrayList<NwnRepository> reps = new ArrayList<>();
         try {
             final int filecount = Integer.parseInt(props.getProperty("filecount", "0"));
@@ -4,6 +4,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Map;
@@ -86,6 +88,33 @@ public class ZipRepository extends AbstractRepository{
             null;
     }
 
+    /**
+     * {@link ZipFile} synchronizes access to the zip file itself, several
+     * entries can be inflated at once.
+     */
+    @Override
+    public ByteBuffer readResource(ResourceID id) throws IOException {
+        final ZipEntry e = entries.get(id);
+        if (e == null) {
+            return null;
+        }
+        if (e.getSize() == -1 || e.getSize() > Integer.MAX_VALUE) {
+            return super.readResource(id);
+        }
+        final byte[] data = new byte[(int) e.getSize()];
+        try (final InputStream is = zipFile.getInputStream(e)) {
+            int n = 0;
+            int len;
+            while (n < data.length && (len = is.read(data, n, data.length - n)) != -1) {
+                n += len;
+            }
+            if (n < data.length) {
+                throw new IOException("Unexpected end of zip entry " + e.getName());
+            }
+        }
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
     @Override
     public boolean contains(ResourceID id) {
         return entries.containsKey(id);
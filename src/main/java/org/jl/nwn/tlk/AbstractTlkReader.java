@@ -1,6 +1,7 @@
 package org.jl.nwn.tlk;
 
 import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -11,6 +12,10 @@ import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import static java.nio.charset.StandardCharsets.US_ASCII;
 
 import javax.swing.ProgressMonitor;
@@ -21,12 +26,21 @@ import org.jl.nwn.Version;
 /**
  * Reads a tlk file and creates a Talk Table object representation by using
  * a builder pattern.
+ * <p>
+ * Strings are read in chunks of {@value #DECODE_CHUNK_SIZE} entries which are
+ * decoded in parallel on the common {@link ForkJoinPool}, each chunk with its
+ * own {@link CharsetDecoder}. Only a few chunks are read ahead of the entry
+ * passed to {@link #createEntry}, so memory use does not depend on the size
+ * of the file and loading can be cancelled at any entry.
  */
 public abstract class AbstractTlkReader<TlkTable>{
 
     /** {@code "TLK V3.0"} - magic and version of the file. */
     public final static byte[] HEADER  = { 'T', 'L', 'K', ' ', 'V', '3', '.', '0' };
 
+    /** Number of strings decoded by one task. */
+    private static final int DECODE_CHUNK_SIZE = 4096;
+
     private final Version nwnVersion;
 
     /** Creates a new instance of AbstractTlkReader
@@ -99,8 +113,6 @@ public abstract class AbstractTlkReader<TlkTable>{
         float[] sndlength = new float[entries];
         String[] resrefs = new String[entries];
 
-        int maxStringSize = 0;
-
         // reading index entries
         for ( int i = 0; i < entries; i++ ){
             is.read( indexEntryBytes );
@@ -109,10 +121,7 @@ public abstract class AbstractTlkReader<TlkTable>{
             if ( indexEntryBytes[4] != 0 )
                 resrefs[i] = new String( indexEntryBytes, 4, 16 ).trim();
             mbb.position( 32 );
-            int stringSize = mbb.getInt();
-            stringSizes[i] = stringSize;
-            maxStringSize = maxStringSize<stringSize?
-                stringSize :  maxStringSize;
+            stringSizes[i] = mbb.getInt();
             sndlength[i] = mbb.getFloat();
         }
 
@@ -125,23 +134,69 @@ public abstract class AbstractTlkReader<TlkTable>{
                 is.skip(skip);
         }
 
-        // read string data
-        byte[] strBuf = new byte[maxStringSize];
-        if ( pm != null ){
-            //pm.setNote("reading strings");
+        // read string data, chunks are decoded while the next ones are read
+        final Charset charset = Charset.forName(language.getEncoding());
+        final DataInputStream in = new DataInputStream( is );
+        final int maxPending = ForkJoinPool.getCommonPoolParallelism() + 1;
+        final Deque<ForkJoinTask<String[]>> pending = new ArrayDeque<>();
+        int next = 0;
+        int i = 0;
+        boolean canceled = false;
+        try {
+            while ( i < entries && !canceled ){
+                while ( next < entries && pending.size() < maxPending ){
+                    final int start = next;
+                    final int end = Math.min( start + DECODE_CHUNK_SIZE, entries );
+                    int length = 0;
+                    for ( int k = start; k < end; k++ )
+                        length += stringSizes[k];
+                    final byte[] data = new byte[length];
+                    in.readFully( data );
+                    pending.add( ForkJoinPool.commonPool().submit(
+                            () -> decode( data, stringSizes, start, end, charset ) ) );
+                    next = end;
+                }
+                final String[] strings = pending.poll().join();
+                for ( int k = 0; k < strings.length && !canceled; k++, i++ ){
+                    createEntry( tlk, i,
+                            flags[i],
+                            resrefs[i],
+                            sndlength[i],
+                            strings[k]);
+
+                    if ( pm!=null ){
+                        canceled = pm.isCanceled();
+                        if ( !canceled )
+                            pm.setProgress( i );
+                    }
+                }
+            }
+        } finally {
+            for ( final ForkJoinTask<String[]> task : pending )
+                task.cancel( false );
         }
+        if ( pm!=null && !pm.isCanceled() )
+            pm.setProgress( pm.getMaximum() );
+        return tlk;
+    }
 
-        Charset charset = Charset.forName(language.getEncoding());
-        CharsetDecoder decoder = charset.newDecoder();
-        CharBuffer cbuf = CharBuffer.allocate(
+    /**
+     * Decodes the strings of the entries {@code start} to {@code end}
+     * (exclusive), which are stored one after the other in {@code data}.
+     */
+    private static String[] decode( byte[] data, int[] stringSizes, int start, int end, Charset charset ){
+        final CharsetDecoder decoder = charset.newDecoder();
+        int maxStringSize = 0;
+        for ( int i = start; i < end; i++ )
+            maxStringSize = Math.max( maxStringSize, stringSizes[i] );
+        final CharBuffer cbuf = CharBuffer.allocate(
                 (int)Math.ceil(maxStringSize * decoder.maxCharsPerByte()));
-        ByteBuffer bb = ByteBuffer.wrap(strBuf);
-
-        for ( int i = 0; i < entries; i++ ){
-            is.read( strBuf, 0, stringSizes[i] );
-            bb.rewind();
-            bb.limit(stringSizes[i]);
-            cbuf.limit(cbuf.capacity());
+        final String[] strings = new String[end - start];
+        int offset = 0;
+        for ( int i = start; i < end; i++ ){
+            final ByteBuffer bb = ByteBuffer.wrap( data, offset, stringSizes[i] );
+            offset += stringSizes[i];
+            cbuf.clear();
             decoder.reset();
             CoderResult result = decoder.decode(bb, cbuf, true);
             decoder.flush(cbuf);
@@ -150,21 +205,9 @@ public abstract class AbstractTlkReader<TlkTable>{
                 System.err.printf("CharsetDecoder error on entry %d : %s\n",
                         i, result );
             }
-            createEntry( tlk, i,
-                    flags[i],
-                    resrefs[i],
-                    sndlength[i],
-                    cbuf.toString());
-
-            if ( pm!=null ){
-                if ( pm.isCanceled() )
-                    break;
-                pm.setProgress( i );
-            }
+            strings[i - start] = cbuf.toString();
         }
-        if ( pm!=null && !pm.isCanceled() )
-            pm.setProgress( pm.getMaximum() );
-        return tlk;
+        return strings;
     }
 
     /**
@@ -0,0 +1,280 @@
+package org.jl.nwn.tlk;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import org.jl.nwn.NwnLanguage;
+import org.jl.nwn.Version;
+
+/**
+ * Compact list of tlk entries. Instead of one {@link TlkEntry} object per
+ * entry the fields are stored in parallel primitive arrays : flags, sound
+ * lengths, an index into a table of distinct sound resrefs and the position
+ * of the encoded string in a single buffer, the arena. {@link #get} returns a view
+ * created on demand whose string is decoded when first requested.
+ * <p>
+ * The columns are filled by {@link #read} directly from the index of a tlk
+ * file and the string block of the file is used as the arena as it is, so
+ * strings are neither decoded nor encoded while loading. Entries stored with
+ * {@link #set} or {@link #add} are kept as objects, like with an
+ * {@code ArrayList}, so that callers can keep modifying them.
+ * <p>
+ * The arena is either a heap copy of the string block or the memory mapped
+ * string block. A heap copy keeps no file handle open, so the file can be
+ * replaced while the list is in use, e.g. when an editor saves it in place.
+ * With a mapped string block only the columns are held on the heap and heap
+ * use grows with the edited entries only, but on some platforms the file
+ * cannot be replaced as long as the mapping exists.
+ */
+final class ColumnarTlkEntries extends AbstractList<TlkEntry> implements RandomAccess {
+
+    private static final int HEADER_SIZE = 20;
+    private static final int INDEX_ENTRY_SIZE = 40;
+
+    private final NwnLanguage language;
+    private final Charset charset;
+
+    private int size;
+    private byte[] flags;
+    private float[] soundLengths;
+    /** Index into {@link #resRefs}, 0 is the empty resref. */
+    private int[] resRefIds;
+    private int[] stringStarts;
+    private int[] stringLengths;
+    /** Entries stored as objects, {@code null} for packed rows. */
+    private TlkEntry[] objects;
+
+    /**
+     * Encoded strings of all packed rows, the string block of the file.
+     * Accessed only with absolute positions.
+     */
+    private final ByteBuffer arena;
+
+    private String[] resRefs = { "" };
+    private int resRefCount = 1;
+    private final Map<String, Integer> resRefIndex = new HashMap<>();
+
+    private ColumnarTlkEntries( NwnLanguage language, int size, ByteBuffer arena ){
+        this.language = language;
+        this.charset = Charset.forName( language.getEncoding() );
+        this.size = size;
+        this.arena = arena;
+        flags = new byte[size];
+        soundLengths = new float[size];
+        resRefIds = new int[size];
+        stringStarts = new int[size];
+        stringLengths = new int[size];
+        objects = new TlkEntry[size];
+    }
+
+    /**
+     * Reads all entries of a tlk file into columns.
+     *
+     * @param file tlk file
+     * @param nwnVersion version of the file, determines the language
+     * @param map if true the string block is mapped instead of read into
+     *        memory
+     * @throws IOException If file cannot be read or is not a tlk file
+     */
+    static ColumnarTlkEntries read( File file, Version nwnVersion, boolean map ) throws IOException{
+        final ByteBuffer index;
+        final ByteBuffer strings;
+        final NwnLanguage language;
+        final int size;
+        try (final FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer header = read( fc, 0, HEADER_SIZE );
+            for (int i = 0; i < AbstractTlkReader.HEADER.length; ++i) {
+                if (header.get(i) != AbstractTlkReader.HEADER[i]) {
+                    throw new IOException("Invalid magic or version of file, expected '"
+                            + new String(AbstractTlkReader.HEADER, US_ASCII)
+                            + "', got '"
+                            + new String(header.array(), 0, AbstractTlkReader.HEADER.length, US_ASCII)
+                            + "'"
+                    );
+                }
+            }
+            language = NwnLanguage.find( nwnVersion, header.getInt(8) );
+            size = header.getInt(12);
+            final int stringDataStart = header.getInt(16);
+
+            if ( size < 0 || stringDataStart < HEADER_SIZE + (long)INDEX_ENTRY_SIZE * size
+                    || stringDataStart > fc.size() )
+                throw new IOException( "corrupt tlk file : " + file );
+            index = read( fc, HEADER_SIZE, INDEX_ENTRY_SIZE * size );
+            if ( fc.size() - stringDataStart > Integer.MAX_VALUE )
+                throw new IOException( "tlk file too large : " + file );
+            strings = map
+                    ? fc.map( FileChannel.MapMode.READ_ONLY, stringDataStart, fc.size() - stringDataStart )
+                    : read( fc, stringDataStart, (int)( fc.size() - stringDataStart ) );
+        }
+
+        final ColumnarTlkEntries entries = new ColumnarTlkEntries( language, size, strings );
+        final byte[] resRef = new byte[16];
+        for ( int row = 0; row < size; row++ ){
+            final int p = row * INDEX_ENTRY_SIZE;
+            entries.flags[row] = index.get( p );
+            index.position( p + 4 );
+            index.get( resRef );
+            int resRefLength = 0;
+            while ( resRefLength < resRef.length && resRef[resRefLength] != 0 )
+                resRefLength++;
+            entries.resRefIds[row] = resRefLength == 0
+                    ? 0 : entries.resRefId( new String( resRef, 0, resRefLength, US_ASCII ) );
+            final int length = index.getInt( p + 32 );
+            if ( length > 0 ){
+                final int offset = index.getInt( p + 28 );
+                if ( offset < 0 || offset > strings.capacity() - length )
+                    throw new IOException( "corrupt tlk file, string of entry " + row
+                            + " out of bounds : " + file );
+                entries.stringStarts[row] = offset;
+                entries.stringLengths[row] = length;
+            }
+            entries.soundLengths[row] = index.getFloat( p + 36 );
+        }
+        return entries;
+    }
+
+    private static ByteBuffer read( FileChannel fc, long position, int length ) throws IOException{
+        final ByteBuffer bb = ByteBuffer.allocate( length ).order( ByteOrder.LITTLE_ENDIAN );
+        while ( bb.hasRemaining() )
+            if ( fc.read( bb, position + bb.position() ) == -1 )
+                throw new EOFException( "unexpected end of file at position " + (position + bb.position()) );
+        bb.flip();
+        return bb;
+    }
+
+    /** Returns language stored in the header of the file. */
+    NwnLanguage getLanguage(){
+        return language;
+    }
+
+    @Override
+    public TlkEntry get( int pos ){
+        rangeCheck( pos, size );
+        final TlkEntry e = objects[pos];
+        return e != null ? e : new PackedEntry( pos );
+    }
+
+    @Override
+    public TlkEntry set( int pos, TlkEntry e ){
+        final TlkEntry old = get( pos );
+        objects[pos] = e;
+        return old;
+    }
+
+    @Override
+    public void add( int pos, TlkEntry e ){
+        rangeCheck( pos, size + 1 );
+        ensureCapacity( size + 1 );
+        shift( pos, pos + 1, size - pos );
+        objects[pos] = e;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public TlkEntry remove( int pos ){
+        final TlkEntry old = get( pos );
+        shift( pos + 1, pos, size - pos - 1 );
+        size--;
+        objects[size] = null;
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public int size(){
+        return size;
+    }
+
+    private int resRefId( String resRef ){
+        if ( resRef == null || resRef.isEmpty() )
+            return 0;
+        final Integer id = resRefIndex.get( resRef );
+        if ( id != null )
+            return id;
+        if ( resRefCount == resRefs.length )
+            resRefs = Arrays.copyOf( resRefs, resRefCount * 2 );
+        resRefs[resRefCount] = resRef;
+        resRefIndex.put( resRef, resRefCount );
+        return resRefCount++;
+    }
+
+    private void shift( int from, int to, int length ){
+        System.arraycopy( flags, from, flags, to, length );
+        System.arraycopy( soundLengths, from, soundLengths, to, length );
+        System.arraycopy( resRefIds, from, resRefIds, to, length );
+        System.arraycopy( stringStarts, from, stringStarts, to, length );
+        System.arraycopy( stringLengths, from, stringLengths, to, length );
+        System.arraycopy( objects, from, objects, to, length );
+    }
+
+    private void ensureCapacity( int capacity ){
+        if ( capacity > flags.length ){
+            capacity = Math.max( capacity, flags.length + (flags.length >> 1) );
+            flags = Arrays.copyOf( flags, capacity );
+            soundLengths = Arrays.copyOf( soundLengths, capacity );
+            resRefIds = Arrays.copyOf( resRefIds, capacity );
+            stringStarts = Arrays.copyOf( stringStarts, capacity );
+            stringLengths = Arrays.copyOf( stringLengths, capacity );
+            objects = Arrays.copyOf( objects, capacity );
+        }
+    }
+
+    private static void rangeCheck( int pos, int limit ){
+        if ( pos < 0 || pos >= limit )
+            throw new IndexOutOfBoundsException( "Index: " + pos + ", Size: " + (limit - 1) );
+    }
+
+    /** View of a packed row, string is decoded when first requested. */
+    private final class PackedEntry extends TlkEntry{
+        private final int start;
+        private final int length;
+        private boolean stringChanged = false;
+
+        PackedEntry( int row ){
+            flags = ColumnarTlkEntries.this.flags[row];
+            soundResRef = resRefs[resRefIds[row]];
+            soundLength = soundLengths[row];
+            start = stringStarts[row];
+            length = stringLengths[row];
+            string = null;
+        }
+
+        @Override
+        public String getString(){
+            if ( string == null )
+                string = length == 0 ? "" : charset.decode( slice() ).toString();
+            return string;
+        }
+
+        @Override
+        public void setString( String string ){
+            stringChanged = true;
+            super.setString( string );
+        }
+
+        @Override
+        ByteBuffer getEncodedString( Charset cs ){
+            return stringChanged || !cs.equals( charset ) ? null : slice();
+        }
+
+        private ByteBuffer slice(){
+            final ByteBuffer bb = arena.duplicate();
+            bb.limit( start + length ).position( start );
+            return bb;
+        }
+    }
+}
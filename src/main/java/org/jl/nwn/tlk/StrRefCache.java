@@ -0,0 +1,102 @@
+package org.jl.nwn.tlk;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size bounded cache mapping StrRefs to strings that can be used by many
+ * threads without locking. The cache is a two-way set associative table :
+ * a StrRef can be stored in one of two neighbouring slots, on insertion the
+ * slot which was not read since the last insertion is replaced (CLOCK-like
+ * second chance), so frequently looked up strings survive.
+ */
+final class StrRefCache {
+
+    private static final class Node {
+        final int strRef;
+        final String value;
+        volatile boolean referenced;
+
+        Node( int strRef, String value ){
+            this.strRef = strRef;
+            this.value = value;
+        }
+    }
+
+    private final AtomicReferenceArray<Node> slots;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity maximum number of cached strings, rounded up to the
+     *        next power of two
+     */
+    StrRefCache( int capacity ){
+        int n = 2;
+        while ( n < capacity )
+            n <<= 1;
+        slots = new AtomicReferenceArray<>( n );
+        mask = n - 1;
+    }
+
+    /** Returns the string cached for strRef or {@code null}. */
+    String get( int strRef ){
+        final int i = slot( strRef );
+        Node node = slots.get( i );
+        if ( node == null || node.strRef != strRef ){
+            node = slots.get( i ^ 1 );
+            if ( node == null || node.strRef != strRef ){
+                misses.increment();
+                return null;
+            }
+        }
+        if ( !node.referenced )
+            node.referenced = true;
+        hits.increment();
+        return node.value;
+    }
+
+    /** Stores a string, may evict another string from the cache. */
+    void put( int strRef, String value ){
+        final int i = slot( strRef );
+        final Node a = slots.get( i );
+        final Node b = slots.get( i ^ 1 );
+        final Node node = new Node( strRef, value );
+        // replace the string itself if cached, then prefer free slots and
+        // slots without recent hits
+        final int victim;
+        if ( a != null && a.strRef == strRef )
+            victim = i;
+        else if ( b != null && b.strRef == strRef )
+            victim = i ^ 1;
+        else if ( a == null )
+            victim = i;
+        else if ( b == null )
+            victim = i ^ 1;
+        else if ( !a.referenced )
+            victim = i;
+        else if ( !b.referenced )
+            victim = i ^ 1;
+        else {
+            b.referenced = false;
+            victim = i;
+        }
+        // losing a race only means that the string is not cached
+        slots.compareAndSet( victim, victim == i ? a : b, node );
+    }
+
+    long getHits(){
+        return hits.sum();
+    }
+
+    long getMisses(){
+        return misses.sum();
+    }
+
+    private int slot( int strRef ){
+        int h = strRef * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
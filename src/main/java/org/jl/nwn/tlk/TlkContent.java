@@ -1,15 +1,11 @@
 package org.jl.nwn.tlk;
 
-import java.io.BufferedOutputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -20,7 +16,7 @@ import org.jl.nwn.Version;
 /**
  * tlk content = List of tlk entries + language ID
  */
-public class TlkContent implements Iterable<TlkEntry> {
+public class TlkContent implements Iterable<TlkEntry>, TlkSource {
 
     private NwnLanguage language;
     private List<TlkEntry> tlkEntries = new ArrayList<>();
@@ -39,6 +35,45 @@ public class TlkContent implements Iterable<TlkEntry> {
         tlkEntries = entries;
     }
 
+    /**
+     * Opens a tlk file without decoding its strings. The returned object
+     * holds the entries in compact columns over the raw string bytes of the
+     * file, strings are decoded when accessed and only entries stored with
+     * {@link #set}/{@link #add} are kept as objects.
+     * The file is not kept open and can be overwritten, also by
+     * {@link #saveAs}. Note that entries returned by {@link #get} are not
+     * connected to the content, changed entries must be stored back with
+     * {@code set}.
+     *
+     * @param file tlk file to open
+     * @param nwnVersion version of the file, determines the charset used to
+     *        decode strings
+     * @return content backed by the bytes of the file
+     * @throws IOException If file cannot be read or is not a tlk file
+     */
+    public static TlkContent open(File file, Version nwnVersion) throws IOException {
+        final ColumnarTlkEntries entries = ColumnarTlkEntries.read(file, nwnVersion, false);
+        return new TlkContent(entries, entries.getLanguage());
+    }
+
+    /**
+     * Like {@link #open} but maps the strings of the file into memory instead
+     * of reading them, so only the index columns and the changed entries use
+     * heap memory. The mapping exists until the content is garbage
+     * collected; as some platforms cannot replace a mapped file, use this
+     * only for files that are read, not for files saved in place.
+     *
+     * @param file tlk file to map
+     * @param nwnVersion version of the file, determines the charset used to
+     *        decode strings
+     * @return content backed by the mapped file
+     * @throws IOException If file cannot be read or is not a tlk file
+     */
+    public static TlkContent map(File file, Version nwnVersion) throws IOException {
+        final ColumnarTlkEntries entries = ColumnarTlkEntries.read(file, nwnVersion, true);
+        return new TlkContent(entries, entries.getLanguage());
+    }
+
     public void set( int pos, TlkEntry e ){
         for ( int i = tlkEntries.size(); i < pos + 1; i++ )
             tlkEntries.add( new TlkEntry() );
@@ -65,102 +100,51 @@ public class TlkContent implements Iterable<TlkEntry> {
         return tlkEntries.remove( pos );
     }
 
+    /** Returns the list holding the entries of this content. */
+    List<TlkEntry> getEntries(){
+        return tlkEntries;
+    }
+
     public TlkEntry get( int pos ){
         return tlkEntries.get( pos );
     }
 
+    @Override
     public int size(){
         return tlkEntries.size();
     }
 
     @Override
-    public Iterator<TlkEntry> iterator(){
-        return tlkEntries.iterator();
+    public byte getFlags( int pos ){
+        return get( pos ).getFlags();
     }
 
-    public void saveAs(File file, Version nwnVersion) throws IOException {
-        // use BufferedOutputStream for performance and FileChannel to set the write position
-        try (final FileOutputStream fos = new FileOutputStream(file);
-             final FileChannel fc = fos.getChannel();
-             final BufferedOutputStream out = new BufferedOutputStream( fos )
-        ) {
-            byte[] zero = new byte[40];
-            int headerSize = 20;
-            int entrySize = 40;
-            // header : TLK V3.0
-            out.write( TLKHEADER );
-            out.write( TLKVERSION );
-            // language id ( UINT32 )
-            writeIntLE(out, language.getCode());
-            // number of entries
-            writeIntLE(out, tlkEntries.size());
-            // starting position for entries
-            int start = tlkEntries.size() * entrySize + headerSize;
-            writeIntLE(out, start);
-            out.flush();
-
-            int posFromStart = 0;
-            int[] stringSizes = new int[ tlkEntries.size() ];
-            fc.position( start );
-            // write strings & store byte[] sizes
-
-            for (int i = 0; i < tlkEntries.size(); i++) {
-                final TlkEntry entry = tlkEntries.get(i);
-                byte[] bytes = entry.getString().getBytes(
-                        language.getEncoding() );
-                stringSizes[i] = bytes.length;
-                out.write(bytes);
-            }
+    @Override
+    public String getString( int pos ){
+        return get( pos ).getString();
+    }
 
-            // write index entries
+    @Override
+    public String getSoundResRef( int pos ){
+        return get( pos ).getSoundResRef();
+    }
 
-            out.flush();
-            fc.position( headerSize );
-            for (int i = 0; i < tlkEntries.size(); i++) {
-                final TlkEntry entry = tlkEntries.get(i);
+    @Override
+    public float getSoundLength( int pos ){
+        return get( pos ).getSoundLength();
+    }
 
-                out.write(entry.getFlags());
-                out.write(zero, 0, 3);
+    @Override
+    public Iterator<TlkEntry> iterator(){
+        return tlkEntries.iterator();
+    }
 
-                // write resName and fill with 0
-                String resRef = entry.getSoundResRef();
-                if ( resRef != null && resRef.length() > 0 ){
-                    byte[] resRefBytes =
-                            entry.getSoundResRef().getBytes("ASCII");
-                    int resRefLength = Math.min(resRefBytes.length, 16);
-                    out.write(resRefBytes,0,resRefLength);
-                    out.write(zero, 0, 16 - resRefLength);
-                }
-                else
-                    out.write(zero, 0, 16);
-
-                // 8 bytes sound stuff, unused ( always 0 )
-                out.write(zero, 0, 8);
-
-                // relative position of entry, used only if length > 0
-                if ( entry.getString().length() > 0 ) {
-                    writeIntLE(out, posFromStart);
-                    posFromStart += stringSizes[i];
-                } else
-                    out.write(zero, 0, 4);
-
-                // length of entry
-                writeIntLE(out, stringSizes[i]);
-
-                //float ( sound length )
-                if ( entry.getSoundLength() != 0 )
-                    writeIntLE( out, Float.floatToIntBits( entry.getSoundLength() ) );
-                else out.write(zero, 0, 4);
-            }
-            out.flush();
-        }
+    public void saveAs(File file, Version nwnVersion) throws IOException {
+        write(file);
     }
 
-    private static void writeIntLE(OutputStream out, int i) throws IOException {
-        out.write(i & 255);
-        out.write((i >> 8) & 255);
-        out.write((i >> 16) & 255);
-        out.write((i >> 24) & 255);
+    private void write(File file) throws IOException {
+        TlkWriter.write(file, language, tlkEntries.size(), tlkEntries.iterator());
     }
 
     /** Reads an int value stored in little endian byte order, starting at current file pointer. */
@@ -171,40 +155,29 @@ public class TlkContent implements Iterable<TlkEntry> {
             | (raf.readUnsignedByte() << 24);
     }
 
+    /**
+     * Writes the entries at the given positions to a diff file, see
+     * {@link TlkDiff}.
+     */
     public void writeDiff( File file, int[] selection ) throws IOException{
-        try (final RandomAccessFile raf = new RandomAccessFile( file, "rw" )) {
-            // write placeholder for number of entries
-            raf.writeInt( 0 );
-            int size = 0;
-            for ( int i = 0; i < selection.length; i++ ){
-                final TlkEntry e = tlkEntries.get(selection[i]);
-                size++;
-                System.out.print(".");
-                raf.writeInt( selection[i] );
-                e.writeEntry( raf );
-            }
-            System.out.println();
-            //	write number of entries
-            raf.seek( 0 );
-            raf.writeInt( size );
-        }
+        writeDiff( file, selection, false );
     }
 
-    public int[] mergeDiff( File file ) throws IOException{
-        try (final FileInputStream fis = new FileInputStream( file );
-             final DataInputStream dis = new DataInputStream( fis )
-        ) {
-            final int entries = dis.readInt();
-            final int[] positions = new int[entries];
-            for ( int i = 0; i < entries; i++ ){
-                final int pos = dis.readInt();
+    /**
+     * Writes the entries at the given positions to a diff file, see
+     * {@link TlkDiff}.
+     * @param compress {@code true} if the entries should be compressed
+     */
+    public void writeDiff( File file, int[] selection, boolean compress ) throws IOException{
+        TlkDiff.write( file, this, selection, Charset.forName( language.getEncoding() ), compress );
+    }
 
-                TlkEntry e = new TlkEntry( dis );
-                set( pos,  e );
-                positions[i] = pos;
-            }
-            return positions;
-        }
+    /**
+     * Stores the entries of a diff file in this content.
+     * @return positions of the changed entries
+     */
+    public int[] mergeDiff( File file ) throws IOException{
+        return TlkDiff.read( file, Charset.forName( language.getEncoding() ) ).applyTo( this );
     }
 
     public int[] mergeDtu( File file ) throws IOException{
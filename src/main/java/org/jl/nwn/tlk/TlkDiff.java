@@ -0,0 +1,187 @@
+package org.jl.nwn.tlk;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Set of tlk entries together with their StrRefs, stored in tlk diff
+ * ( .tlu ) files. Layout of a diff file, all numbers are big endian :
+ * <pre>
+ * "TLU V2.0"
+ * int      flags, {@link #COMPRESSED} if the entry block is deflate compressed
+ * byte     length of charset name
+ * byte[]   charset name ( ASCII ), charset of all strings in the file
+ * int      number of entries
+ * int      length of index block
+ * int[]    index block : StrRefs of the entries in ascending order
+ * int      length of entry block
+ * byte[]   entry block : entries in index order, see {@link TlkEntry#writeEntry}
+ * </pre>
+ * Old diff files ( number of entries followed by StrRef / entry pairs ) can
+ * still be read, their strings are decoded with a charset chosen by the
+ * caller.
+ */
+public class TlkDiff {
+
+    private static final byte[] MAGIC = "TLU V2.0".getBytes( US_ASCII );
+
+    /** Flag : the entry block is deflate compressed. */
+    public static final int COMPRESSED = 1;
+
+    private final Charset charset;
+    private final int[] strRefs;
+    private final TlkEntry[] entries;
+
+    private TlkDiff( Charset charset, int[] strRefs, TlkEntry[] entries ){
+        this.charset = charset;
+        this.strRefs = strRefs;
+        this.entries = entries;
+    }
+
+    /**
+     * Writes entries of a talk table to a diff file.
+     *
+     * @param file file to write
+     * @param source talk table
+     * @param strRefs StrRefs of the entries to write, need not be sorted,
+     *        duplicates are written once
+     * @param charset charset used to encode strings
+     * @param compress {@code true} if the entry block should be compressed
+     * @throws IOException If file cannot be written
+     */
+    public static void write( File file, TlkSource source, int[] strRefs, Charset charset, boolean compress ) throws IOException{
+        final int[] refs = Arrays.stream( strRefs ).sorted().distinct().toArray();
+
+        final ByteArrayOutputStream block = new ByteArrayOutputStream( refs.length * 64 );
+        final Deflater deflater = compress ? new Deflater() : null;
+        try (final DataOutputStream out = new DataOutputStream(
+                compress ? new DeflaterOutputStream( block, deflater ) : block )) {
+            final TlkEntry e = new TlkEntry();
+            for ( final int strRef : refs ){
+                e.setFlags( source.getFlags( strRef ) );
+                e.setSoundLength( source.getSoundLength( strRef ) );
+                e.setSoundResRef( source.getSoundResRef( strRef ) );
+                e.setString( source.getString( strRef ) );
+                e.writeEntry( out, charset );
+            }
+        } finally {
+            if ( deflater != null )
+                deflater.end();
+        }
+
+        final byte[] charsetName = charset.name().getBytes( US_ASCII );
+        try (final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( Files.newOutputStream( file.toPath() ) ) )) {
+            out.write( MAGIC );
+            out.writeInt( compress ? COMPRESSED : 0 );
+            out.writeByte( charsetName.length );
+            out.write( charsetName );
+            out.writeInt( refs.length );
+            out.writeInt( refs.length * 4 );
+            for ( final int strRef : refs )
+                out.writeInt( strRef );
+            out.writeInt( block.size() );
+            block.writeTo( out );
+        }
+    }
+
+    /**
+     * Reads a diff file.
+     *
+     * @param file file to read
+     * @param legacyCharset charset used to decode strings of files in the old
+     *        format, which does not record the charset
+     * @throws IOException If file cannot be read or is corrupt
+     */
+    public static TlkDiff read( File file, Charset legacyCharset ) throws IOException{
+        final byte[] data = Files.readAllBytes( file.toPath() );
+        final DataInputStream in = new DataInputStream( new ByteArrayInputStream( data ) );
+        if ( data.length < MAGIC.length || !Arrays.equals( MAGIC, Arrays.copyOf( data, MAGIC.length ) ) )
+            return readLegacy( in, legacyCharset );
+        in.skipBytes( MAGIC.length );
+
+        final int flags = in.readInt();
+        final byte[] charsetName = new byte[in.readUnsignedByte()];
+        in.readFully( charsetName );
+        final Charset charset = Charset.forName( new String( charsetName, US_ASCII ) );
+
+        final int size = in.readInt();
+        if ( size < 0 || in.readInt() != size * 4 )
+            throw new IOException( "corrupt index block in " + file );
+        final int[] strRefs = new int[size];
+        for ( int i = 0; i < size; i++ ){
+            strRefs[i] = in.readInt();
+            if ( i > 0 && strRefs[i] <= strRefs[i - 1] )
+                throw new IOException( "index not sorted in " + file );
+        }
+
+        final int blockLength = in.readInt();
+        if ( blockLength < 0 || blockLength > in.available() )
+            throw new IOException( "truncated entry block in " + file );
+        InputStream block = new ByteArrayInputStream( data, data.length - in.available(), blockLength );
+        if ( (flags & COMPRESSED) != 0 )
+            block = new InflaterInputStream( block );
+        final DataInputStream entryIn = new DataInputStream( block );
+        final TlkEntry[] entries = new TlkEntry[size];
+        for ( int i = 0; i < size; i++ )
+            entries[i] = new TlkEntry( entryIn, charset );
+        return new TlkDiff( charset, strRefs, entries );
+    }
+
+    private static TlkDiff readLegacy( DataInputStream in, Charset charset ) throws IOException{
+        final int size = in.readInt();
+        if ( size < 0 )
+            throw new IOException( "not a tlk diff file" );
+        final int[] strRefs = new int[size];
+        final TlkEntry[] entries = new TlkEntry[size];
+        for ( int i = 0; i < size; i++ ){
+            strRefs[i] = in.readInt();
+            entries[i] = new TlkEntry( in, charset );
+        }
+        return new TlkDiff( charset, strRefs, entries );
+    }
+
+    /**
+     * Stores all entries in a talk table, the table is extended if
+     * necessary. With a table opened by {@link TlkContent#open}
+     * only the entries of the diff are held in memory and the strings of
+     * all other entries are copied without decoding when the table is saved.
+     *
+     * @return StrRefs of the changed entries
+     */
+    public int[] applyTo( TlkContent content ){
+        for ( int i = 0; i < strRefs.length; i++ )
+            content.set( strRefs[i], entries[i] );
+        return strRefs.clone();
+    }
+
+    /** Returns charset of the strings in the diff file. */
+    public Charset getCharset(){
+        return charset;
+    }
+
+    public int size(){
+        return strRefs.length;
+    }
+
+    public int getStrRef( int i ){
+        return strRefs[i];
+    }
+
+    public TlkEntry getEntry( int i ){
+        return entries[i];
+    }
+}
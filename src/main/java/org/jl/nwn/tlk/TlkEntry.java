@@ -1,9 +1,10 @@
 package org.jl.nwn.tlk;
 
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 public class TlkEntry implements Cloneable{
 
@@ -26,15 +27,20 @@ public class TlkEntry implements Cloneable{
 	public TlkEntry(){}
 
 	public TlkEntry( TlkEntry entry ){
-		flags = entry.flags;
-		string = entry.string;
-		soundResRef = entry.soundResRef;
-		soundLength = entry.soundLength;
-	}
-
-	public TlkEntry( DataInputStream dis ) throws IOException{
+		flags = entry.getFlags();
+		string = entry.getString();
+		soundResRef = entry.getSoundResRef();
+		soundLength = entry.getSoundLength();
+	}
+
+	/**
+	 * Reads an entry written by {@link #writeEntry}.
+	 * @param in input to read from
+	 * @param charset charset of the string and the sound resref
+	 */
+	public TlkEntry( DataInput in, Charset charset ) throws IOException{
 		this();
-		readObject(dis);
+		readObject( in, charset );
 	}
 
 	public void setStringFlag( boolean b ){
@@ -96,33 +102,46 @@ public class TlkEntry implements Cloneable{
 	@Override
 	public TlkEntry clone(){
 		TlkEntry ret = new TlkEntry();
-		ret.setSoundResRef(this.soundResRef);
-		ret.setString(this.string);
-		ret.setSoundLength(this.soundLength);
-		ret.setFlags(this.flags);
+		ret.setSoundResRef(getSoundResRef());
+		ret.setString(getString());
+		ret.setSoundLength(getSoundLength());
+		ret.setFlags(getFlags());
 		return ret;
 	}
 
-	private void readObject( DataInput in )
+	private void readObject( DataInput in, Charset charset )
 		throws IOException{
 		   setFlags(in.readByte());
 		   setSoundLength(in.readFloat());
-		   byte[] resRef = new byte[ in.readByte() ];
+		   byte[] resRef = new byte[ in.readUnsignedByte() ];
 		   in.readFully( resRef );
-		   setSoundResRef(new String( resRef ));
+		   setSoundResRef(new String( resRef, charset ));
 		   byte[] cntBuf = new byte[ in.readInt() ];
 		   in.readFully( cntBuf );
-		   setString(new String( cntBuf ));
+		   setString(new String( cntBuf, charset ));
 		}
 
-	// basically code for custom serialization
-	// screw this ! no i18n support ( encoding / charset )
-	public void writeEntry(DataOutput out) throws IOException {
-        out.writeByte( getFlags() ); //flags
-        out.writeFloat( getSoundLength() ); //soundLength
-        out.writeByte( getSoundResRef().length() ); // sndResRef size
-        out.write( getSoundResRef().getBytes() );
-        out.writeInt( getString().length() );
-        out.write( getString().getBytes() );
-    }
+	/**
+	 * Writes flags, sound length, sound resref and string, lengths are
+	 * written as byte counts of the encoded strings.
+	 */
+	public void writeEntry( DataOutput out, Charset charset ) throws IOException {
+		final byte[] resRef = getSoundResRef().getBytes( charset );
+		final byte[] string = getString().getBytes( charset );
+		out.writeByte( getFlags() ); //flags
+		out.writeFloat( getSoundLength() ); //soundLength
+		out.writeByte( resRef.length ); // sndResRef size
+		out.write( resRef );
+		out.writeInt( string.length );
+		out.write( string );
+	}
+
+	/**
+	 * Returns the string encoded with the given charset if it is available
+	 * without encoding it, e.g. as read from a file.
+	 * @return buffer holding the encoded string or {@code null}
+	 */
+	ByteBuffer getEncodedString( Charset charset ){
+		return null;
+	}
 }
@@ -1,68 +1,129 @@
 package org.jl.nwn.tlk;
 
+import java.io.File;
+import java.io.IOException;
+
+import org.jl.nwn.Version;
+
+/**
+ * Resolves StrRefs against a main and an optional user talk table. StrRefs
+ * with the {@link #USERTLKOFFSET} bit set are looked up in the user table,
+ * falling back to the main table. Tables can be fully loaded, edited or
+ * memory mapped ( see {@link TlkSource} ), use {@link #map} to look up
+ * strings without loading tlk files into memory.
+ */
 public class TlkLookup{
 
 	public static final int USERTLKOFFSET = 1 << 24;
 	public static final int INVALIDSTRREF = -1;
 
-	private static final TlkEntry INVALIDENTRY = new TlkEntry( (byte)0, "", "", 0 );
 	private static final int STRREFMASK = USERTLKOFFSET - 1;
 
 	private boolean useFlags = true;
-	TlkContent main;
-	TlkContent user = null;
+	TlkSource main;
+	TlkSource user = null;
 
-	public TlkLookup( TlkContent main ){
+	public TlkLookup( TlkSource main ){
 		this.main = main;
 	}
 
-	public TlkLookup( TlkContent main, TlkContent user ){
+	public TlkLookup( TlkSource main, TlkSource user ){
 		this.main = main;
+		this.user = user;
+	}
+
+	/**
+	 * Creates a lookup backed by memory mapped tlk files.
+	 * @param mainTlk main talk table file
+	 * @param userTlk user talk table file, may be {@code null}
+	 * @param nwnVersion version of the tlk files
+	 */
+	public static TlkLookup map( File mainTlk, File userTlk, Version nwnVersion ) throws IOException{
+		return new TlkLookup(
+				new TlkReadOnly( mainTlk, 1000, nwnVersion ),
+				userTlk == null ? null : new TlkReadOnly( userTlk, 1000, nwnVersion ) );
 	}
 
-	private boolean isUserStrRef( int strRef ){
+	public static boolean isUserStrRef( int strRef ){
 		return (strRef & USERTLKOFFSET) != 0;
 	}
 
-	protected TlkEntry getEntry( int pos ){
-		if ( pos == INVALIDSTRREF )
-			return INVALIDENTRY;
-		if ( isUserStrRef(pos) ){
-			pos &= STRREFMASK;
-			if ( user != null && pos < user.size() )
-				return user.get(pos);
-			// fall back to main talk table
-		}
-		pos &= STRREFMASK;
-		if ( pos < main.size() )
-			return main.get(pos);
-		// if all fails return entry 0 of main table ( usually "BAD STRREF" )
-		return main.get(0);
+	/**
+	 * Returns the table which holds strRef, {@code null} if there is no such
+	 * entry.
+	 */
+	private TlkSource table( int strRef ){
+		if ( strRef == INVALIDSTRREF )
+			return null;
+		final int pos = strRef & STRREFMASK;
+		if ( isUserStrRef(strRef) && user != null && pos < user.size() )
+			return user;
+		// user strrefs fall back to main talk table
+		if ( main != null && pos < main.size() )
+			return main;
+		return null;
+	}
+
+	/**
+	 * Returns {@code true} if there is an entry for strRef, either in the user
+	 * table or in the main table.
+	 */
+	public boolean contains( int strRef ){
+		return table( strRef ) != null;
+	}
+
+	/**
+	 * Returns {@code true} if strRef is resolved by the user table.
+	 */
+	public boolean isInUserTable( int strRef ){
+		return user != null && table( strRef ) == user;
 	}
 
 	public String getString( int pos ){
-		TlkEntry e = getEntry(pos);
-		return useFlags && !e.hasString() ? "" : e.getString();
+		TlkSource t = table(pos);
+		if ( t == null ){
+			// if all fails return entry 0 of main table ( usually "BAD STRREF" )
+			if ( pos == INVALIDSTRREF || main == null || main.size() == 0 )
+				return "";
+			t = main;
+			pos = 0;
+		}
+		pos &= STRREFMASK;
+		return useFlags && (t.getFlags(pos) & TlkEntry.TEXT_PRESENT) == 0 ? "" : t.getString(pos);
 	}
 
 	public String getSoundResRef( int pos ){
-		TlkEntry e = getEntry(pos);
-		return useFlags && !e.hasSound() ? "" : e.getSoundResRef();
+		TlkSource t = table(pos);
+		if ( t == null )
+			return "";
+		pos &= STRREFMASK;
+		return useFlags && (t.getFlags(pos) & TlkEntry.SND_PRESENT) == 0 ? "" : t.getSoundResRef(pos);
 	}
 
 	public float getSoundLength( int pos ){
-		TlkEntry e = getEntry(pos);
-		return useFlags && !e.hasSoundLength() ? 0 : e.getSoundLength();
+		TlkSource t = table(pos);
+		if ( t == null )
+			return 0;
+		pos &= STRREFMASK;
+		return useFlags && (t.getFlags(pos) & TlkEntry.SND_PRESENT) == 0 ? 0 : t.getSoundLength(pos);
 	}
 
-	public void setUserTable( TlkContent user ){
+	public void setUserTable( TlkSource user ){
 		this.user = user;
 	}
 
-	public void setMainTable( TlkContent main ){
+	public void setMainTable( TlkSource main ){
 		this.main = main;
 	}
 
+	public TlkSource getUserTable(){
+		return user;
+	}
+
+	public TlkSource getMainTable(){
+		return main;
+	}
+
 	public void useFlags( boolean flags ){
 		useFlags = flags;
 	}
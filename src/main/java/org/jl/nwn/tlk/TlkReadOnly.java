@@ -3,113 +3,130 @@ package org.jl.nwn.tlk;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.nio.charset.Charset;
 
 import org.jl.nwn.NwnLanguage;
 import org.jl.nwn.Version;
 
-public class TlkReadOnly {
-
-    LinkedHashMap<Integer, String> cache;
-    ByteBuffer index;
-    ByteBuffer stringBytes;
-    int size;
-    NwnLanguage lang;
-    Version nwnVersion;
-
-    FileInputStream fis;
-    FileChannel fc;
+/**
+ * Read only tlk table using a memory mapped file. Lookups only use absolute
+ * reads on the mapped buffers and a lock free cache, so any number of
+ * threads can resolve StrRefs concurrently.
+ */
+public class TlkReadOnly implements TlkSource {
+
+    final StrRefCache cache;
+    final ByteBuffer index;
+    final ByteBuffer stringBytes;
+    final int size;
+    final NwnLanguage lang;
+    final Charset charset;
+    final Version nwnVersion;
 
     public TlkReadOnly(
             File file,
             final int cacheSize,
             Version nwnVersion ) throws IOException{
         this.nwnVersion = nwnVersion;
-        fis = new FileInputStream( file );
-        fc = fis.getChannel();
-        ByteBuffer header = ByteBuffer.allocate(20);
-        header.order( ByteOrder.LITTLE_ENDIAN );
-        fc.read(header);
-
-        String fileHeader = new String(header.array(),0,8);
-        if ( !fileHeader.startsWith("TLK") )
-            throw new IOException( "Error : not a tlk file " );
-        if ( !fileHeader.equals("TLK V3.0") )
-            throw new IOException( "Error : wrong tlk file version : "
-                    + fileHeader );
-
-        header.position(8);
-        lang = NwnLanguage.find( nwnVersion, header.getInt() );
-        size = header.getInt();
-
-        int stringDataStart = header.getInt();
-
-        //index = ByteBuffer.allocate( 40 * size );
-        index = fc.map( FileChannel.MapMode.READ_ONLY, 20, 40*size );
-        index.order( ByteOrder.LITTLE_ENDIAN );
-        //fc.read(index, 20);
-
-        stringBytes = fc.map(
-                FileChannel.MapMode.READ_ONLY,
-                stringDataStart,
-                fc.size() - stringDataStart );
-
-        cache = new LinkedHashMap<Integer, String>(cacheSize, 0.75f, true){
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
-                return size() > cacheSize;
-            }
-        };
-        fis.close();
-        fc.close();
+        try (final FileInputStream fis = new FileInputStream( file );
+             final FileChannel fc = fis.getChannel()
+        ) {
+            ByteBuffer header = ByteBuffer.allocate(20);
+            header.order( ByteOrder.LITTLE_ENDIAN );
+            fc.read(header);
+
+            String fileHeader = new String(header.array(),0,8);
+            if ( !fileHeader.startsWith("TLK") )
+                throw new IOException( "Error : not a tlk file " );
+            if ( !fileHeader.equals("TLK V3.0") )
+                throw new IOException( "Error : wrong tlk file version : "
+                        + fileHeader );
+
+            header.position(8);
+            lang = NwnLanguage.find( nwnVersion, header.getInt() );
+            size = header.getInt();
+
+            int stringDataStart = header.getInt();
+
+            index = fc.map( FileChannel.MapMode.READ_ONLY, 20, 40*size );
+            index.order( ByteOrder.LITTLE_ENDIAN );
+
+            stringBytes = fc.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    stringDataStart,
+                    fc.size() - stringDataStart );
+        }
+        charset = Charset.forName( lang.getEncoding() );
+        cache = new StrRefCache( cacheSize );
     }
 
     public TlkReadOnly( File file, final int cacheSize ) throws IOException{
-        this( file, 1000, Version.getDefaultVersion() );
+        this( file, cacheSize, Version.getDefaultVersion() );
     }
 
     public TlkReadOnly( File file ) throws IOException{
         this(file, 1000);
     }
 
+    @Override
     public String getString( int strRef ){
-
-        String s;
-        synchronized( cache ){
-            s = cache.get(strRef);
-            if ( s != null )
-                return s;
-        }
-        int offset, length;
-        synchronized( index ){
-            index.position( 28 + (strRef * 40) );
-            offset = index.getInt();
-            length = index.getInt();
+        String s = cache.get( strRef );
+        if ( s != null )
+            return s;
+        final int offset = index.getInt( 28 + (strRef * 40) );
+        final int length = index.getInt( 32 + (strRef * 40) );
+        if ( length == 0 ){
+            s = "";
+        } else {
+            final ByteBuffer bytes = stringBytes.duplicate();
+            bytes.limit( offset + length ).position( offset );
+            s = charset.decode( bytes ).toString();
         }
+        cache.put( strRef, s );
+        return s;
+    }
 
-        byte[] bytes = new byte[length];
-        synchronized( stringBytes ){
-            stringBytes.position(offset);
-            stringBytes.get(bytes);
-        }
-        try{
-            s = new String( bytes, lang.getEncoding() );
-        } catch ( UnsupportedEncodingException uee ){
-            // should not happen
-            throw new Error("Java Runtime doesn't support encoding : "
-                    + lang.getEncoding(), uee);
-        }
-        synchronized ( cache ){
-            cache.put( strRef, s );
+    @Override
+    public byte getFlags( int strRef ){
+        return index.get( strRef * 40 );
+    }
+
+    @Override
+    public String getSoundResRef( int strRef ){
+        final int p = strRef * 40 + 4;
+        final StringBuilder sb = new StringBuilder( 16 );
+        for ( int i = 0; i < 16; i++ ){
+            final byte b = index.get( p + i );
+            if ( b == 0 )
+                break;
+            sb.append( (char) b );
         }
-        return s;
+        return sb.toString();
+    }
+
+    @Override
+    public float getSoundLength( int strRef ){
+        return index.getFloat( 36 + (strRef * 40) );
+    }
+
+    public NwnLanguage getLanguage(){
+        return lang;
+    }
+
+    /** Returns number of {@link #getString} calls answered from the cache. */
+    public long getCacheHits(){
+        return cache.getHits();
+    }
+
+    /** Returns number of {@link #getString} calls that had to decode the string. */
+    public long getCacheMisses(){
+        return cache.getMisses();
     }
 
+    @Override
     public int size(){
         return size;
     }
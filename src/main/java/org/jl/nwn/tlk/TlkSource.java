@@ -0,0 +1,24 @@
+package org.jl.nwn.tlk;
+
+/**
+ * Read only access to the entries of a talk table by position. Implemented
+ * by fully loaded ({@link TlkContent}), memory mapped ({@link TlkReadOnly})
+ * and edited talk tables, so lookups do not depend on how a table is held.
+ */
+public interface TlkSource {
+
+    /** Returns number of entries in the table. */
+    int size();
+
+    /** Returns flags of the entry at position {@code pos}. */
+    byte getFlags( int pos );
+
+    /** Returns string of the entry at position {@code pos}. */
+    String getString( int pos );
+
+    /** Returns sound resref of the entry at position {@code pos}. */
+    String getSoundResRef( int pos );
+
+    /** Returns sound length of the entry at position {@code pos}. */
+    float getSoundLength( int pos );
+}
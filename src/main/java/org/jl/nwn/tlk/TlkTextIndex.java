@@ -0,0 +1,514 @@
+package org.jl.nwn.tlk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Trigram index over the strings and sound resrefs of a talk table, used to
+ * find the entries containing a text without scanning the whole table.
+ * <p>
+ * The index is built in a background thread by {@link #rebuild}. Until it is
+ * ready all query methods return {@code null}, callers have to fall back to a
+ * full scan. Changes of the table must be reported with {@link #rowsUpdated},
+ * {@link #rowsInserted} and {@link #rowsDeleted} : changed and inserted rows
+ * are remembered and checked directly on every query, deleted and shifted
+ * rows are remapped, so the index never has to be rebuilt for edits.
+ * <p>
+ * The table is only read by tasks run with the executor given to the
+ * constructor, e.g. on the event dispatch thread that edits the table : the
+ * builder copies the strings of the table in chunks with such tasks and
+ * indexes the copies. Queries read changed rows directly and must be called
+ * on the thread of that executor, all other methods may be called from any
+ * thread.
+ * <p>
+ * All trigrams are case folded, so candidate sets are also valid for case
+ * insensitive searches.
+ */
+public class TlkTextIndex {
+
+    private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor( r -> {
+        final Thread t = new Thread( r, "TlkTextIndex builder" );
+        t.setDaemon( true );
+        t.setPriority( Thread.MIN_PRIORITY );
+        return t;
+    } );
+
+    /** Number of rows copied by one task of the source executor. */
+    private static final int COPY_CHUNK_SIZE = 4096;
+
+    /** Characters that break literal runs in a regular expression. */
+    private static final String REGEX_META = "\\[](){}.*+?^$|";
+
+    private final TlkSource source;
+    /** Runs all reads of the table done by the builder. */
+    private final Executor sourceExecutor;
+
+    /** Postings per trigram, indexed by document ( row at build time ). */
+    private Map<Long, Postings> postings = null;
+    /** Current row of every document, -1 if deleted. */
+    private int[] docRows = null;
+    /** Rows changed or inserted since the index was built. */
+    private final BitSet dirty = new BitSet();
+    /** Incremented by structural changes, outdates running builds. */
+    private int generation = 0;
+
+    /**
+     * @param source table to index
+     * @param sourceExecutor executor running the tasks that read the table,
+     *        e.g. {@code SwingUtilities::invokeLater} for a table edited on
+     *        the event dispatch thread
+     */
+    public TlkTextIndex( TlkSource source, Executor sourceExecutor ){
+        this.source = source;
+        this.sourceExecutor = sourceExecutor;
+    }
+
+    /** Returns {@code true} if the index is built and can answer queries. */
+    public synchronized boolean isReady(){
+        return postings != null;
+    }
+
+    /**
+     * Discards the index and starts building a new one in the background.
+     */
+    public synchronized void rebuild(){
+        final int gen = ++generation;
+        postings = null;
+        docRows = null;
+        dirty.clear();
+        BUILDER.execute( () -> build( gen ) );
+    }
+
+    private void build( int gen ){
+        final Map<Long, Postings> map = new HashMap<>();
+        final Integer tableSize = read( () -> outdated( gen ) ? null : source.size() );
+        if ( tableSize == null )
+            return;
+        final int size = tableSize;
+        for ( int start = 0; start < size; start += COPY_CHUNK_SIZE ){
+            final int from = start;
+            final int to = Math.min( size, start + COPY_CHUNK_SIZE );
+            // structural changes are reported before the next task runs, so
+            // an up to date build always reads existing rows
+            final String[] docs = read( () -> {
+                if ( outdated( gen ) )
+                    return null;
+                final String[] d = new String[to - from];
+                for ( int row = from; row < to; row++ )
+                    d[row - from] = document( row );
+                return d;
+            } );
+            if ( docs == null )
+                return;
+            for ( int doc = from; doc < to; doc++ ){
+                final long[] trigrams = trigrams( docs[doc - from] );
+                for ( final long t : trigrams ){
+                    Postings p = map.get( t );
+                    if ( p == null )
+                        map.put( t, p = new Postings() );
+                    p.add( doc );
+                }
+            }
+        }
+        for ( final Postings p : map.values() )
+            p.trim();
+        final int[] rows = new int[size];
+        for ( int i = 0; i < size; i++ )
+            rows[i] = i;
+        synchronized ( this ){
+            if ( gen == generation ){
+                postings = map;
+                docRows = rows;
+            }
+        }
+    }
+
+    private synchronized boolean outdated( int gen ){
+        return gen != generation;
+    }
+
+    /** Runs reader with the source executor and waits for its result. */
+    private <T> T read( Supplier<T> reader ){
+        return CompletableFuture.supplyAsync( reader, sourceExecutor ).join();
+    }
+
+    /** Marks rows first to last (inclusive) as changed. */
+    public synchronized void rowsUpdated( int first, int last ){
+        dirty.set( first, last + 1 );
+    }
+
+    /** Rows first to last (inclusive) were inserted. */
+    public synchronized void rowsInserted( int first, int last ){
+        final int count = last - first + 1;
+        if ( postings == null ){
+            // a running build would use outdated rows
+            if ( generation > 0 )
+                rebuild();
+            return;
+        }
+        for ( int i = 0; i < docRows.length; i++ )
+            if ( docRows[i] >= first )
+                docRows[i] += count;
+        final BitSet tail = dirty.get( first, Math.max( first, dirty.length() ) );
+        dirty.clear( first, Math.max( first, dirty.length() ) );
+        for ( int i = tail.nextSetBit( 0 ); i >= 0; i = tail.nextSetBit( i + 1 ) )
+            dirty.set( i + first + count );
+        dirty.set( first, last + 1 );
+    }
+
+    /** Rows first to last (inclusive) were deleted. */
+    public synchronized void rowsDeleted( int first, int last ){
+        final int count = last - first + 1;
+        if ( postings == null ){
+            // a running build would use outdated rows
+            if ( generation > 0 )
+                rebuild();
+            return;
+        }
+        for ( int i = 0; i < docRows.length; i++ ){
+            if ( docRows[i] > last )
+                docRows[i] -= count;
+            else if ( docRows[i] >= first )
+                docRows[i] = -1;
+        }
+        final BitSet tail = dirty.get( last + 1, Math.max( last + 1, dirty.length() ) );
+        dirty.clear( first, Math.max( first, dirty.length() ) );
+        for ( int i = tail.nextSetBit( 0 ); i >= 0; i = tail.nextSetBit( i + 1 ) )
+            dirty.set( i + first );
+    }
+
+    /**
+     * Returns rows whose string or sound resref may contain text, ignoring
+     * case. The result is a sorted superset of the matching rows.
+     *
+     * @return candidate rows, or {@code null} if the index is not ready or
+     *         text is too short to use the index
+     */
+    public int[] candidates( String text ){
+        return text.length() < 3 ? null : candidates( Arrays.asList( text ) );
+    }
+
+    /**
+     * Returns rows whose string or sound resref may match the regular
+     * expression. The literal parts of the pattern are used as filter, so
+     * patterns with alternatives or without literal parts of at least three
+     * characters can not be filtered.
+     *
+     * @return sorted candidate rows, or {@code null} if the index is not ready
+     *         or the pattern can not be used to filter rows
+     */
+    public int[] candidates( Pattern p ){
+        final List<String> literals = requiredLiterals( p );
+        return literals == null ? null : candidates( literals );
+    }
+
+    /**
+     * Returns strings that every match of the pattern contains.
+     * @return literal parts of at least three characters, {@code null} if
+     *         there are none or the pattern has alternatives
+     */
+    public static List<String> requiredLiterals( Pattern p ){
+        if ( (p.flags() & Pattern.LITERAL) != 0 )
+            return p.pattern().length() < 3 ? null : Arrays.asList( p.pattern() );
+        return literals( p.pattern() );
+    }
+
+    /**
+     * Returns rows whose string contains text.
+     * @return sorted matching rows or {@code null} if index is not ready or
+     *         text is too short to use the index
+     */
+    public int[] find( String text, boolean ignoreCase ){
+        return find( Pattern.compile( text, Pattern.LITERAL | caseFlags( ignoreCase ) ) );
+    }
+
+    /**
+     * Returns rows whose string contains word as a whole word.
+     * @return sorted matching rows or {@code null} if index is not ready or
+     *         word is too short to use the index
+     */
+    public int[] findWord( String word, boolean ignoreCase ){
+        final int[] rows = candidates( word );
+        return rows == null ? null : verify( rows,
+                Pattern.compile( "\\b" + Pattern.quote( word ) + "\\b", caseFlags( ignoreCase ) ) );
+    }
+
+    /**
+     * Returns rows whose string contains a match of the regular expression.
+     * @return sorted matching rows or {@code null} if index is not ready or
+     *         pattern can not be used with the index
+     */
+    public int[] find( Pattern p ){
+        final int[] rows = candidates( p );
+        return rows == null ? null : verify( rows, p );
+    }
+
+    private int[] verify( int[] rows, Pattern p ){
+        int n = 0;
+        for ( final int row : rows )
+            if ( row < source.size() && p.matcher( source.getString( row ) ).find() )
+                rows[n++] = row;
+        return Arrays.copyOf( rows, n );
+    }
+
+    private static int caseFlags( boolean ignoreCase ){
+        return ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0;
+    }
+
+    private synchronized int[] candidates( List<String> literals ){
+        if ( postings == null )
+            return null;
+        final Set<Long> keys = new HashSet<>();
+        for ( final String s : literals )
+            for ( final long t : trigrams( s ) )
+                keys.add( t );
+        if ( keys.isEmpty() )
+            return null;
+        final List<Postings> lists = new ArrayList<>();
+        boolean missing = false;
+        for ( final Long key : keys ){
+            final Postings p = postings.get( key );
+            if ( p == null ){
+                missing = true;
+                break;
+            }
+            lists.add( p );
+        }
+        int[] docs = new int[0];
+        if ( !missing ){
+            lists.sort( ( a, b ) -> Integer.compare( a.count, b.count ) );
+            docs = lists.get( 0 ).decode();
+            for ( int i = 1; i < lists.size() && docs.length > 0; i++ )
+                docs = lists.get( i ).intersect( docs );
+        }
+        final BitSet rows = (BitSet) dirty.clone();
+        for ( final int doc : docs ){
+            final int row = docRows[doc];
+            if ( row != -1 )
+                rows.set( row );
+        }
+        return rows.stream().toArray();
+    }
+
+    /** Text indexed for a row, string and resref separated by a character that can not be searched for. */
+    private String document( int row ){
+        return source.getString( row ) + '\0' + source.getSoundResRef( row );
+    }
+
+    /** Returns the distinct case folded trigrams of s. */
+    private static long[] trigrams( String s ){
+        if ( s.length() < 3 )
+            return new long[0];
+        final long[] t = new long[s.length() - 2];
+        long c0 = Character.toLowerCase( s.charAt( 0 ) );
+        long c1 = Character.toLowerCase( s.charAt( 1 ) );
+        for ( int i = 2; i < s.length(); i++ ){
+            final long c2 = Character.toLowerCase( s.charAt( i ) );
+            t[i - 2] = (c0 << 32) | (c1 << 16) | c2;
+            c0 = c1;
+            c1 = c2;
+        }
+        Arrays.sort( t );
+        int n = 1;
+        for ( int i = 1; i < t.length; i++ )
+            if ( t[i] != t[n - 1] )
+                t[n++] = t[i];
+        return Arrays.copyOf( t, n );
+    }
+
+    /**
+     * Returns the literal runs of a regular expression which every match must
+     * contain, {@code null} if the pattern has alternatives or no run of at
+     * least three characters.
+     */
+    private static List<String> literals( String regex ){
+        if ( regex.indexOf( '|' ) != -1 )
+            return null;
+        final List<String> runs = new ArrayList<>();
+        final StringBuilder run = new StringBuilder();
+        int depth = 0;
+        boolean inClass = false;
+        for ( int i = 0; i < regex.length(); i++ ){
+            final char c = regex.charAt( i );
+            if ( inClass ){
+                if ( c == '\\' && i + 1 < regex.length() )
+                    i = escapeEnd( regex, i + 1 );
+                else if ( c == ']' )
+                    inClass = false;
+                continue;
+            }
+            if ( c == '\\' && i + 1 < regex.length() ){
+                final char e = regex.charAt( ++i );
+                if ( depth == 0 && REGEX_META.indexOf( e ) != -1 ){
+                    run.append( e );
+                    continue;
+                }
+                if ( e == 'Q' ){
+                    int end = regex.indexOf( "\\E", i + 1 );
+                    if ( end == -1 )
+                        end = regex.length();
+                    if ( depth == 0 )
+                        run.append( regex, i + 1, end );
+                    i = end + 1;
+                    continue;
+                }
+                // any other escape ends the run
+                i = escapeEnd( regex, i );
+            } else if ( REGEX_META.indexOf( c ) == -1 ){
+                if ( depth == 0 )
+                    run.append( c );
+                continue;
+            } else if ( (c == '?' || c == '*' || c == '{') && run.length() > 0 ){
+                // the last character of the run is optional
+                run.setLength( run.length() - 1 );
+            }
+            if ( c == '{' ){
+                // skip quantifier bounds
+                final int end = regex.indexOf( '}', i );
+                i = end == -1 ? regex.length() : end;
+            } else if ( c == '[' )
+                inClass = true;
+            else if ( c == '(' )
+                depth++;
+            else if ( c == ')' )
+                depth = Math.max( 0, depth - 1 );
+            endRun( run, runs );
+        }
+        endRun( run, runs );
+        return runs.isEmpty() ? null : runs;
+    }
+
+    /**
+     * Returns the index of the last character of an escape sequence, {@code i}
+     * is the index of the character following the backslash.
+     */
+    private static int escapeEnd( String regex, int i ){
+        final int n = regex.length();
+        switch ( regex.charAt( i ) ){
+            case 'x':
+                if ( i + 1 < n && regex.charAt( i + 1 ) == '{' )
+                    return closing( regex, i + 1, '}' );
+                return Math.min( i + 2, n - 1 );
+            case 'u':
+                return Math.min( i + 4, n - 1 );
+            case '0': {
+                // up to three octal digits, the first of three at most 3
+                int end = i;
+                while ( end - i < 3 && end + 1 < n
+                        && regex.charAt( end + 1 ) >= '0' && regex.charAt( end + 1 ) <= '7' )
+                    end++;
+                if ( end - i == 3 && regex.charAt( i + 1 ) > '3' )
+                    end--;
+                return end;
+            }
+            case 'c':
+                return Math.min( i + 1, n - 1 );
+            case 'k':
+                return i + 1 < n && regex.charAt( i + 1 ) == '<' ? closing( regex, i + 1, '>' ) : i;
+            case 'p':
+            case 'P':
+                if ( i + 1 < n && regex.charAt( i + 1 ) == '{' )
+                    return closing( regex, i + 1, '}' );
+                return Math.min( i + 1, n - 1 );
+            case 'N':
+            case 'b':
+                return i + 1 < n && regex.charAt( i + 1 ) == '{' ? closing( regex, i + 1, '}' ) : i;
+            default:
+                // back references take all following digits
+                int end = i;
+                if ( regex.charAt( i ) >= '1' && regex.charAt( i ) <= '9' )
+                    while ( end + 1 < n && Character.isDigit( regex.charAt( end + 1 ) ) )
+                        end++;
+                return end;
+        }
+    }
+
+    /** Returns index of the first {@code c} after {@code i} or the last index. */
+    private static int closing( String regex, int i, char c ){
+        final int end = regex.indexOf( c, i + 1 );
+        return end == -1 ? regex.length() - 1 : end;
+    }
+
+    private static void endRun( StringBuilder run, List<String> runs ){
+        if ( run.length() >= 3 )
+            runs.add( run.toString() );
+        run.setLength( 0 );
+    }
+
+    /** Sorted list of document ids, stored as variable length deltas. */
+    private static final class Postings {
+        private byte[] data = new byte[4];
+        private int length = 0;
+        private int last = -1;
+        int count = 0;
+
+        void add( int doc ){
+            if ( doc == last )
+                return;
+            int delta = doc - last;
+            last = doc;
+            count++;
+            if ( length + 5 > data.length )
+                data = Arrays.copyOf( data, data.length * 2 );
+            while ( delta > 0x7F ){
+                data[length++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+        }
+
+        void trim(){
+            data = Arrays.copyOf( data, length );
+        }
+
+        int[] decode(){
+            final int[] docs = new int[count];
+            int doc = -1;
+            int p = 0;
+            for ( int i = 0; i < count; i++ ){
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[p++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ( b < 0 );
+                doc += delta;
+                docs[i] = doc;
+            }
+            return docs;
+        }
+
+        /** Returns the documents of sorted that are also in this list. */
+        int[] intersect( int[] sorted ){
+            final int[] docs = decode();
+            final int[] result = new int[Math.min( docs.length, sorted.length )];
+            int n = 0;
+            for ( int i = 0, j = 0; i < docs.length && j < sorted.length; ){
+                if ( docs[i] < sorted[j] )
+                    i++;
+                else if ( docs[i] > sorted[j] )
+                    j++;
+                else {
+                    result[n++] = docs[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf( result, n );
+        }
+    }
+}
@@ -1,11 +1,19 @@
 package org.jl.nwn.tlk;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.util.List;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 import org.jl.nwn.NwnLanguage;
 import org.jl.nwn.Version;
@@ -108,84 +116,220 @@ public class TlkTool{
 	 * entries from f2 will start at position f2_start, use TlkTool.TLKAPPEND to
 	 * append f2 directly at the end of f1
 	 * language ID will be that of File f1
+	 * if both files use the same encoding strings are not decoded : the index
+	 * entries are rewritten with shifted offsets and the string data blocks are
+	 * copied with FileChannel.transferTo
 	*/
 	public static void concat( File f1, File f2, File out, int f2_start ) throws IOException{
-		TlkContent c1 = new DefaultTlkReader(Version.getDefaultVersion()).load( f1, null );
-		TlkContent c2 = new DefaultTlkReader(Version.getDefaultVersion()).load( f2, null );;
-		if ( f2_start != TlkTool.TLKAPPEND ){
-			if ( f2_start < c1.size() )
-				throw new IllegalArgumentException( "cannot append starting at position " + f2_start + ", size of 1st tlk file is " + c1.size() );
-			for ( int i = 0; i < f2_start - c1.size(); i++ )
-				c1.add( new TlkEntry() );
+		try ( final FileChannel in1 = FileChannel.open( f1.toPath(), READ );
+			  final FileChannel in2 = FileChannel.open( f2.toPath(), READ ) ){
+			final TlkHeader h1 = new TlkHeader( in1 );
+			final TlkHeader h2 = new TlkHeader( in2 );
+			if ( f2_start == TlkTool.TLKAPPEND )
+				f2_start = h1.size;
+			else if ( f2_start < h1.size )
+				throw new IllegalArgumentException( "cannot append starting at position " + f2_start + ", size of 1st tlk file is " + h1.size );
+			if ( !h1.language.getEncoding().equals( h2.language.getEncoding() ) ){
+				concatDecoded( f1, f2, out, f2_start );
+				return;
+			}
+			final int start = f2_start;
+			final long stringData1 = in1.size() - h1.stringDataStart;
+			final long stringData2 = in2.size() - h2.stringDataStart;
+			if ( stringData1 + stringData2 > Integer.MAX_VALUE )
+				throw new IOException( "string data too large for a single tlk file" );
+			writeReplacing( out, o -> {
+				writeHeader( o, h1.language, start + h2.size );
+				// index of 1st file is copied unchanged, followed by empty entries
+				transfer( in1, HEADER_SIZE, INDEX_ENTRY_SIZE * (long)h1.size, o );
+				final ByteBuffer empty = ByteBuffer.allocate( INDEX_ENTRY_SIZE * (start - h1.size) );
+				writeFully( o, empty );
+				copyIndex( in2, 0, h2.size, (int)stringData1, o );
+				transfer( in1, h1.stringDataStart, stringData1, o );
+				transfer( in2, h2.stringDataStart, stringData2, o );
+			} );
 		}
-		c1.addAll( c2 );
-		c1.saveAs( out, Version.getDefaultVersion() );
 	}
 
-	public static void main( String args[] ) throws IOException {
+	/* write entries from <start> (inclusive) to <end> (exclusive) of tlk file
+	 * in to out. strings are not decoded, the string data referenced by the
+	 * entries is copied with FileChannel.transferTo
+	 */
+	public static void sublist( File in, File out, int start, int end ) throws IOException{
+		try ( final FileChannel i = FileChannel.open( in.toPath(), READ ) ){
+			final TlkHeader h = new TlkHeader( i );
+			if ( start < 0 || end > h.size || start > end )
+				throw new IndexOutOfBoundsException( "invalid range " + start + "-" + end + ", size of tlk file is " + h.size );
+			// find the part of the string data used by the entries
+			final ByteBuffer index = readIndex( i, start, end - start );
+			long first = Long.MAX_VALUE, last = 0;
+			for ( int p = 0; p < index.limit(); p += INDEX_ENTRY_SIZE ){
+				final int length = index.getInt( p + 32 );
+				if ( length > 0 ){
+					final long offset = index.getInt( p + 28 ) & 0xFFFFFFFFL;
+					first = Math.min( first, offset );
+					last = Math.max( last, offset + length );
+				}
+			}
+			final long from = Math.min( first, last );
+			final long to = last;
+			writeReplacing( out, o -> {
+				writeHeader( o, h.language, end - start );
+				copyIndex( i, start, end - start, (int)-from, o );
+				transfer( i, h.stringDataStart + from, to - from, o );
+			} );
+		}
+	}
 
-		/*
-		readTlkFileMapped( new File( args[0] ) );
-		//writeTlkFile( readTlkFileMapped( new File( args[0] ) ), new File( "out.tlk" ) );
-		//readTlkFile( new File( args[0] ) );
-		System.exit( 0 );
-		*/
+	private static final int HEADER_SIZE = 20;
+	private static final int INDEX_ENTRY_SIZE = 40;
+	/* number of index entries rewritten at once by copyIndex */
+	private static final int INDEX_CHUNK = 4096;
 
-		// System.out.println("..."); readTlkFile( new File( args[0] ) );
-	/*
+	/* header fields of a tlk file */
+	private static class TlkHeader{
+		final NwnLanguage language;
+		final int size;
+		final long stringDataStart;
+
+		TlkHeader( FileChannel fc ) throws IOException{
+			final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+			readFully( fc, header, 0 );
+			for ( int i = 0; i < AbstractTlkReader.HEADER.length; i++ )
+				if ( header.get( i ) != AbstractTlkReader.HEADER[i] )
+					throw new IOException( "Error : not a tlk V3.0 file" );
+			language = NwnLanguage.find( Version.getDefaultVersion(), header.getInt( 8 ) );
+			size = header.getInt( 12 );
+			stringDataStart = header.getInt( 16 ) & 0xFFFFFFFFL;
+		}
+	}
+
+	/* writes the content of a tlk file to the channel */
+	private interface TlkOutput{
+		void write( FileChannel out ) throws IOException;
+	}
+
+	/* writes out to a temporary file in the same directory which then replaces
+	 * out, so out is left unchanged if writing fails and may also be one of
+	 * the files that are read */
+	private static void writeReplacing( File out, TlkOutput output ) throws IOException{
+		final File tmpFile = File.createTempFile( out.getName(), ".tmp", out.getAbsoluteFile().getParentFile() );
+		try {
+			try ( final FileChannel o = FileChannel.open( tmpFile.toPath(), WRITE ) ){
+				output.write( o );
+			}
+			Files.move( tmpFile.toPath(), out.toPath(), REPLACE_EXISTING );
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	private static void writeHeader( FileChannel out, NwnLanguage lang, int size ) throws IOException{
+		final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+		header.put( TlkContent.TLKHEADER ).put( TlkContent.TLKVERSION );
+		header.putInt( lang.getCode() ).putInt( size ).putInt( HEADER_SIZE + INDEX_ENTRY_SIZE * size );
+		header.flip();
+		out.position( 0 );
+		writeFully( out, header );
+	}
+
+	private static ByteBuffer readIndex( FileChannel in, int first, int count ) throws IOException{
+		final ByteBuffer index = ByteBuffer.allocate( INDEX_ENTRY_SIZE * count ).order( ByteOrder.LITTLE_ENDIAN );
+		readFully( in, index, HEADER_SIZE + INDEX_ENTRY_SIZE * (long)first );
+		index.flip();
+		return index;
+	}
+
+	/* copies count index entries starting at entry first to the current position
+	 * of out, adding shift to the string offset of all non-empty entries */
+	private static void copyIndex( FileChannel in, int first, int count, int shift, FileChannel out ) throws IOException{
+		for ( int n = 0; n < count; n += INDEX_CHUNK ){
+			final ByteBuffer index = readIndex( in, first + n, Math.min( INDEX_CHUNK, count - n ) );
+			for ( int p = 0; p < index.limit(); p += INDEX_ENTRY_SIZE )
+				if ( index.getInt( p + 32 ) > 0 )
+					index.putInt( p + 28, index.getInt( p + 28 ) + shift );
+			writeFully( out, index );
+		}
+	}
+
+	/* copies count bytes starting at position of in to the current position of out */
+	private static void transfer( FileChannel in, long position, long count, FileChannel out ) throws IOException{
+		while ( count > 0 ){
+			final long n = in.transferTo( position, count, out );
+			if ( n <= 0 )
+				throw new EOFException( "unexpected end of tlk file" );
+			position += n;
+			count -= n;
+		}
+	}
+
+	private static void readFully( FileChannel in, ByteBuffer bb, long position ) throws IOException{
+		while ( bb.hasRemaining() ){
+			final int n = in.read( bb, position );
+			if ( n < 0 )
+				throw new EOFException( "unexpected end of tlk file" );
+			position += n;
+		}
+	}
+
+	private static void writeFully( FileChannel out, ByteBuffer bb ) throws IOException{
+		while ( bb.hasRemaining() )
+			out.write( bb );
+	}
+
+	/* concatenation for files with different encodings, strings of f2 are
+	 * decoded and encoded with the charset of f1, strings of f1 are copied */
+	private static void concatDecoded( File f1, File f2, File out, int f2_start ) throws IOException{
+		TlkContent c1 = TlkContent.open( f1, Version.getDefaultVersion() );
+		TlkContent c2 = new DefaultTlkReader( Version.getDefaultVersion() ).load( f2, null );
+		// entries between the two files are written as empty entries
+		try ( final TlkWriter w = new TlkWriter( out, c1.getLanguage(), f2_start + c2.size() ) ){
+			try {
+				for ( TlkEntry e : c1 )
+					w.add( e );
+				for ( int i = c1.size(); i < f2_start; i++ )
+					w.add( new TlkEntry() );
+				for ( TlkEntry e : c2 )
+					w.add( e );
+			} catch ( RuntimeException rex ){
+				w.abort();
+				throw rex;
+			}
+		}
+	}
+
+	public static void main( String args[] ) throws IOException {
 		String usage = "usage : \n" +
 				"TlkTool -sublist <tlk file> <start index> [end index]\n" +
 				"\twrite all entries from <start index> (inclusive) to [end index] (exclusive)(optional) to sublist.tlk\n" +
 				"TlkTool -concat <input tlk file> <append tlk file> [start index]\n" +
-				"\tconcatenates the two tlk files, writes output to sublist.tlk. in sublist.tlk, the entries contained in <append tlk file> start at position [start index]\n" +
+				"\tconcatenates the two tlk files, writes output to concat.tlk. in concat.tlk, the entries contained in <append tlk file> start at position [start index]\n" +
 				"TlkTool -size <tlk file>\n" +
 				"\tprint number of entries in tlk file\n";
 
-		if ( args.length == 0 ){
+		if ( args.length < 2 ){
 			System.out.println( usage );
-			System.exit( 0 );
+			return;
 		}
 
 		try {
-
-		if ( args[0].equals( "-sublist" ) ){
-			int start = Integer.parseInt( args[2] );
-			int end = -1;
-			if ( args.length == 4 )
-				end = Integer.parseInt( args[3] );
-			List tlkList = readTlkFile( new File( args[1] ) );
-			if ( end == -1 ) end = tlkList.size();
-			writeTlkFile( tlkList.subList( start, end ), new File( "sublist.tlk" ) );
-		}
-		else if ( args[0].equals( "-concat" ) ){
-			File masterFile = new File( args[1] );
-			File appendFile = new File( args[2] );
-			int inputSize = getTlkFileSize( masterFile );
-			int start = -1;
-			if ( args.length == 4 )
-				start = Integer.parseInt( args[3] );
-			if ( start != -1 && start < inputSize ){
-				System.out.println( "invalid starting position : " +start+ " ( size of input tlk file : " +inputSize+ " )" );
-				System.exit( 0 );
+			if ( args[0].equals( "-sublist" ) && args.length > 2 ){
+				File in = new File( args[1] );
+				int start = Integer.parseInt( args[2] );
+				int end = args.length > 3 ? Integer.parseInt( args[3] ) : getTlkFileSize( in );
+				sublist( in, new File( "sublist.tlk" ), start, end );
 			}
-			List tlkList = readTlkFile( masterFile );
-			List tlkApp = readTlkFile( appendFile );
-			if ( start == -1 )
-				start = tlkList.size();
-			for ( int i = tlkList.size(); i < start; i++ )
-				tlkList.add( new TlkEntry() );
-			tlkList.addAll( start, tlkApp );
-			writeTlkFile( tlkList, new File( "concat.tlk" ) );
-		}
-		else if ( args[0].equals( "-size" ) ){
-			System.out.println( getTlkFileSize( new File( args[1] ) ) );
-		}
-		else System.out.println( usage );
-
+			else if ( args[0].equals( "-concat" ) && args.length > 2 ){
+				int start = args.length > 3 ? Integer.parseInt( args[3] ) : TLKAPPEND;
+				concat( new File( args[1] ), new File( args[2] ), new File( "concat.tlk" ), start );
+			}
+			else if ( args[0].equals( "-size" ) ){
+				System.out.println( getTlkFileSize( new File( args[1] ) ) );
+			}
+			else System.out.println( usage );
 		} catch ( NumberFormatException nfe ){
 			System.out.println( "Not a number : " + nfe.getMessage() + "\n" + usage );
 		}
-*/
 	}
 
 }
@@ -0,0 +1,286 @@
+package org.jl.nwn.tlk;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.util.Iterator;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import org.jl.nwn.NwnLanguage;
+
+/**
+ * Writes tlk files entry by entry without holding the talk table in memory.
+ * The number of entries must be known in advance : strings are written
+ * directly to their final position behind the index and the index entries
+ * are patched in afterwards, so only small fixed size buffers are used
+ * regardless of the size of the table.
+ * <p>
+ * The file is written to a temporary file in the same directory which
+ * replaces the target file when the writer is closed, entries that were not
+ * written until then are written as empty entries. If writing an entry
+ * failed or the writer was {@link #abort aborted} the temporary file is
+ * deleted on close and the target file is left untouched.
+ */
+public class TlkWriter implements Closeable {
+
+    private static final int HEADER_SIZE = 20;
+    private static final int INDEX_ENTRY_SIZE = 40;
+    /** Number of index entries buffered before they are written to the file. */
+    private static final int INDEX_BUFFER_ENTRIES = 1024;
+    private static final int STRING_BUFFER_SIZE = 1 << 16;
+
+    private static final TlkEntry EMPTY = new TlkEntry();
+    private static final byte[] ZERO = new byte[INDEX_ENTRY_SIZE];
+
+    private final File file;
+    private final File tmpFile;
+    private final FileChannel fc;
+    private final CharsetEncoder encoder;
+    private final int size;
+
+    private final ByteBuffer index = ByteBuffer.allocate( INDEX_ENTRY_SIZE * INDEX_BUFFER_ENTRIES )
+            .order( ByteOrder.LITTLE_ENDIAN );
+    private final ByteBuffer strings = ByteBuffer.allocate( STRING_BUFFER_SIZE );
+
+    /** File position at which the buffered index entries will be written. */
+    private long indexPosition = HEADER_SIZE;
+    /** File position at which the buffered string bytes will be written. */
+    private long stringPosition;
+    /** Offset of the next string relative to the start of the string data. */
+    private int stringOffset = 0;
+    private int written = 0;
+    /** Set if writing failed, the file is then discarded on close. */
+    private boolean failed = false;
+
+    /**
+     * Creates a new tlk file and writes its header.
+     *
+     * @param file file to write to, will be replaced on close if it exists
+     * @param language language of the tlk file, determines the charset used
+     *        to encode strings
+     * @param size number of entries that will be written
+     * @throws IOException If file cannot be written
+     */
+    public TlkWriter( File file, NwnLanguage language, int size ) throws IOException{
+        if ( size < 0 )
+            throw new IllegalArgumentException( "negative number of entries : " + size );
+        this.size = size;
+        encoder = Charset.forName( language.getEncoding() ).newEncoder()
+                .onMalformedInput( CodingErrorAction.REPLACE )
+                .onUnmappableCharacter( CodingErrorAction.REPLACE );
+        this.file = file;
+        tmpFile = File.createTempFile( file.getName(), ".tmp", file.getAbsoluteFile().getParentFile() );
+        try {
+            fc = FileChannel.open( tmpFile.toPath(), WRITE, CREATE, TRUNCATE_EXISTING );
+        } catch ( IOException ioex ){
+            tmpFile.delete();
+            throw ioex;
+        }
+
+        final int start = HEADER_SIZE + INDEX_ENTRY_SIZE * size;
+        final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        header.put( TlkContent.TLKHEADER ).put( TlkContent.TLKVERSION );
+        header.putInt( language.getCode() );
+        header.putInt( size );
+        header.putInt( start );
+        header.flip();
+        try {
+            writeFully( header, 0 );
+        } catch ( IOException ioex ){
+            abort();
+            try {
+                close();
+            } catch ( IOException closeEx ){
+                ioex.addSuppressed( closeEx );
+            }
+            throw ioex;
+        }
+        stringPosition = start;
+    }
+
+    /**
+     * Writes all entries of an iterator to a new tlk file.
+     *
+     * @param file file to write to
+     * @param language language of the tlk file
+     * @param size number of entries, if the iterator has more entries
+     *        the remaining ones are not written
+     * @param entries entries to write
+     * @throws IOException If file cannot be written
+     */
+    public static void write( File file, NwnLanguage language, int size, Iterator<? extends TlkEntry> entries ) throws IOException{
+        try (final TlkWriter out = new TlkWriter( file, language, size )) {
+            try {
+                while ( out.getRemaining() > 0 && entries.hasNext() )
+                    out.add( entries.next() );
+            } catch ( RuntimeException rex ){
+                out.abort();
+                throw rex;
+            }
+        }
+    }
+
+    /** Returns number of entries that can still be written. */
+    public int getRemaining(){
+        return size - written;
+    }
+
+    /**
+     * Marks the file as failed, e.g. because the source of the entries threw
+     * an exception, so that {@link #close} discards it instead of completing
+     * it with empty entries.
+     */
+    public void abort(){
+        failed = true;
+    }
+
+    /**
+     * Appends an entry to the file.
+     *
+     * @param entry entry to write
+     * @throws IOException If file cannot be written
+     * @throws IllegalStateException If all entries were already written
+     */
+    public void add( TlkEntry entry ) throws IOException{
+        if ( written == size )
+            throw new IllegalStateException( "all " + size + " entries already written" );
+        if ( failed )
+            throw new IllegalStateException( "writer was aborted" );
+        boolean ok = false;
+        try {
+            write( entry );
+            ok = true;
+        } finally {
+            if ( !ok )
+                failed = true;
+        }
+    }
+
+    private void write( TlkEntry entry ) throws IOException{
+        // strings read from a file with the same charset are copied as they are
+        final ByteBuffer encoded = entry.getEncodedString( encoder.charset() );
+        final int length = encoded != null ? copy( encoded ) : encode( entry.getString() );
+
+        if ( !index.hasRemaining() )
+            flushIndex();
+        final int p = index.position();
+        index.put( entry.getFlags() );
+        index.put( ZERO, 1, INDEX_ENTRY_SIZE - 1 );
+
+        final String resRef = entry.getSoundResRef();
+        if ( resRef != null && !resRef.isEmpty() ){
+            final byte[] resRefBytes = resRef.getBytes( US_ASCII );
+            index.position( p + 4 );
+            index.put( resRefBytes, 0, Math.min( resRefBytes.length, 16 ) );
+        }
+        // 8 bytes sound stuff, unused ( always 0 )
+        // relative position of entry, used only if length > 0
+        if ( length > 0 )
+            index.putInt( p + 28, stringOffset );
+        index.putInt( p + 32, length );
+        index.putFloat( p + 36, entry.getSoundLength() );
+        index.position( p + INDEX_ENTRY_SIZE );
+
+        stringOffset += length;
+        written++;
+    }
+
+    /**
+     * Writes missing entries as empty entries, flushes all buffers and
+     * replaces the target file. If writing failed the temporary file is
+     * deleted instead.
+     */
+    @Override
+    public void close() throws IOException{
+        if ( !fc.isOpen() )
+            return;
+        try {
+            if ( !failed ){
+                while ( written < size )
+                    add( EMPTY );
+                flushIndex();
+                flushStrings();
+            }
+        } catch ( IOException | RuntimeException ex ){
+            failed = true;
+            throw ex;
+        } finally {
+            fc.close();
+            if ( failed )
+                tmpFile.delete();
+        }
+        if ( failed )
+            return;
+        try {
+            Files.move( tmpFile.toPath(), file.toPath(), REPLACE_EXISTING );
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    /** Encodes string into the string buffer and returns number of bytes. */
+    private int encode( String s ) throws IOException{
+        if ( s.isEmpty() )
+            return 0;
+        final long start = stringPosition + strings.position();
+        final CharBuffer in = CharBuffer.wrap( s );
+        encoder.reset();
+        CoderResult result;
+        do {
+            result = encoder.encode( in, strings, true );
+            if ( result.isOverflow() )
+                flushStrings();
+        } while ( result.isOverflow() );
+        while ( encoder.flush( strings ).isOverflow() )
+            flushStrings();
+        return (int)( stringPosition + strings.position() - start );
+    }
+
+    /** Copies an encoded string into the string buffer and returns number of bytes. */
+    private int copy( ByteBuffer bytes ) throws IOException{
+        final int length = bytes.remaining();
+        while ( bytes.remaining() > strings.remaining() ){
+            final int limit = bytes.limit();
+            bytes.limit( bytes.position() + strings.remaining() );
+            strings.put( bytes );
+            bytes.limit( limit );
+            flushStrings();
+        }
+        strings.put( bytes );
+        return length;
+    }
+
+    private void flushIndex() throws IOException{
+        index.flip();
+        final int length = index.remaining();
+        writeFully( index, indexPosition );
+        indexPosition += length;
+        index.clear();
+    }
+
+    private void flushStrings() throws IOException{
+        strings.flip();
+        final int length = strings.remaining();
+        writeFully( strings, stringPosition );
+        stringPosition += length;
+        strings.clear();
+    }
+
+    private void writeFully( ByteBuffer bb, long position ) throws IOException{
+        while ( bb.hasRemaining() )
+            position += fc.write( bb, position );
+    }
+}
@@ -107,7 +107,6 @@ import org.jl.nwn.editor.SimpleFileEditorPanel;
 import org.jl.nwn.spell.Dictionaries;
 import org.jl.nwn.spell.TlkWordFinder;
 import org.jl.nwn.tlk.AbstractTlkReader;
-import org.jl.nwn.tlk.DefaultTlkReader;
 import org.jl.nwn.tlk.TlkContent;
 import org.jl.nwn.tlk.TlkEntry;
 import org.jl.nwn.tlk.TlkLookup;
@@ -145,7 +144,7 @@ public class TlkEdit extends SimpleFileEditorPanel implements PropertyChangeList
     private final MessageSourceSupport messageSupport = new MessageSourceSupport(this);
 
     private TlkContent tlkContent;
-    private final TlkModel model;
+    final TlkModel model;
     private final ButtonModel isUserTlkBM;
     private final MyUndoManager undoManager = new MyUndoManager();
     protected final TlkModelMutator mutator;
@@ -909,7 +908,7 @@ public class TlkEdit extends SimpleFileEditorPanel implements PropertyChangeList
 
     public void load(File f, ProgressMonitor pm, Version nwnVersion) {
         try {
-            tlkContent = new DefaultTlkReader(nwnVersion).load(f, pm);
+            tlkContent = TlkContent.open(f, nwnVersion);
             this.nwnVersion = nwnVersion;
             System.out.println("TlkEdit load: tlk file language is : " + tlkContent.getLanguage());
             System.out.println("TlkEdit load: tlkcontent encoding : " + tlkContent.getLanguage().getEncoding());
@@ -2,6 +2,8 @@ package org.jl.nwn.tlk.editor;
 
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.IOException;
 import java.text.MessageFormat;
 
 import javax.swing.AbstractAction;
@@ -16,12 +18,26 @@ import javax.swing.JTextField;
 import org.jdesktop.swingx.event.MessageListener;
 import org.jdesktop.swingx.event.MessageSource;
 import org.jdesktop.swingx.event.MessageSourceSupport;
+import org.jl.nwn.Version;
 import org.jl.nwn.tlk.TlkLookup;
+import org.jl.nwn.tlk.TlkReadOnly;
 
+/**
+ * Displays strings for StrRefs. StrRefs are resolved by a {@link TlkLookup}
+ * whose tables are either the content of open tlk editors or memory mapped
+ * tlk files, so no tlk file has to be loaded for lookups.
+ */
 public class TlkLookupPanel extends JPanel implements MessageSource {
 
     private TlkEdit tlkedit = null;
     private TlkEdit usertlkedit = null;
+    /** Tables used when no editor is set for the main / user table. */
+    private TlkReadOnly mappedTlk = null;
+    private TlkReadOnly mappedUserTlk = null;
+    private final TlkLookup lookup = new TlkLookup(null);
+    {
+        lookup.useFlags(false);
+    }
 
     protected MessageSourceSupport messageSupport = new MessageSourceSupport(this);
 
@@ -30,6 +46,7 @@ public class TlkLookupPanel extends JPanel implements MessageSource {
     private final JLabel posLabel = new JLabel("0");
     private final JButton updateButton;
     private int position = -1; // displayed position
+    private TlkEdit editor = null; // editor holding the displayed entry
     private final Action updateModel = new AbstractAction("update tlk") {
         {
             setEnabled(false);
@@ -37,10 +54,9 @@ public class TlkLookupPanel extends JPanel implements MessageSource {
 
         @Override
         public void actionPerformed(ActionEvent e) {
-            TlkEdit ed = position >= TlkLookup.USERTLKOFFSET ? usertlkedit : tlkedit;
             //ed.tlkTable.getModel().setValueAt(resField.getText(), position, 1);
             //ed.tlkTable.getModel().setValueAt(textArea.getText(), position, 2);
-            ed.mutator.new SetValueAtEdit("Update", textArea.getText(), position, 2).invoke();
+            editor.mutator.new SetValueAtEdit("Update", textArea.getText(), position & (TlkLookup.USERTLKOFFSET - 1), 2).invoke();
         }
     };
 
@@ -89,50 +105,35 @@ public class TlkLookupPanel extends JPanel implements MessageSource {
 
     public void lookup(int position) {
         this.position = position;
+        editor = null;
         updateModel.setEnabled(false);
         if (position < 0) {
             throw new IllegalArgumentException("error : negative value");
         }
-        if (isUserEntry(position)) {
-            lookupUserTlk(position);
+        if (lookup.getMainTable() == null && lookup.getUserTable() == null) {
+            setNoValue();
+        } else if (!lookup.contains(position)) {
+            posLabel.setText("no such entry : " + position);
+            resField.setText("no such entry");
+            textArea.setText("");
         } else {
-            if (tlkedit == null && !isUserEntry(position)) {
-                setNoValue();
-            } else if (position > tlkedit.tlkTable.getModel().getRowCount() - 2) {
-                posLabel.setText("no such entry : " + position);
-                resField.setText("no such entry");
-                textArea.setText("");
+            final boolean user = lookup.isInUserTable(position);
+            resField.setText(lookup.getSoundResRef(position));
+            String tlkString = lookup.getString(position);
+            textArea.setText(tlkString);
+            message(tlkString, position);
+            textArea.setCaretPosition(0);
+            if (user) {
+                posLabel.setText("User StrRef " + position + " ( " + (position ^ TlkLookup.USERTLKOFFSET) + " )");
             } else {
-                updateModel.setEnabled(true);
-                //resField.setText(tlkedit.tlkTable.getModel().getValueAt(position, 1).toString());
-                String tlkString = tlkedit.tlkTable.getModel().getValueAt(position, 2).toString();
-                textArea.setText(tlkString);
-                message(tlkString, position);
-                textArea.setCaretPosition(0);
                 posLabel.setText("StrRef " + Integer.toString(position));
-                updateButton.setText("update " + tlkedit.getFile().getName());
             }
-        }
-    }
-
-    private void lookupUserTlk(int position) {
-        if (usertlkedit == null) {
-            setNoValue();
-        } else {
-            int p = position ^ TlkLookup.USERTLKOFFSET;
-            if (p > usertlkedit.tlkTable.getModel().getRowCount() - 2) {
-                resField.setText("no such entry in user tlk table");
-                posLabel.setText("no such entry : " + position);
-                textArea.setText("");
-            } else {
+            // mapped tables are read only
+            final TlkEdit ed = user ? usertlkedit : tlkedit;
+            if (ed != null) {
+                editor = ed;
                 updateModel.setEnabled(true);
-                resField.setText(usertlkedit.tlkTable.getModel().getValueAt(p, 1).toString());
-                String tlkString = usertlkedit.tlkTable.getModel().getValueAt(p, 2).toString();
-                textArea.setText(tlkString);
-                message(tlkString, position);
-                textArea.setCaretPosition(0);
-                posLabel.setText("User StrRef " + this.position + " ( " + p + " )");
-                updateButton.setText("update " + usertlkedit.getFile().getName());
+                updateButton.setText("update " + ed.getFile().getName());
             }
         }
     }
@@ -141,17 +142,46 @@ public class TlkLookupPanel extends JPanel implements MessageSource {
         messageSupport.fireMessage(MessageFormat.format("[StrRef {0}] {1}", position, tlkString));
     }
 
-    private boolean isUserEntry(int strref) {
-        return (strref & TlkLookup.USERTLKOFFSET) > 0;
+    /** Returns the lookup used by this panel to resolve StrRefs. */
+    public TlkLookup getLookup() {
+        return lookup;
     }
 
     public void setTlkEdit(TlkEdit ed) {
         tlkedit = ed;
+        lookup.setMainTable(ed != null ? ed.model : mappedTlk);
         setNoValue();
     }
 
     public void setUserTlkEdit(TlkEdit ed) {
         usertlkedit = ed;
+        lookup.setUserTable(ed != null ? ed.model : mappedUserTlk);
+        setNoValue();
+    }
+
+    /**
+     * Maps a tlk file that is used as main table while no editor is set with
+     * {@link #setTlkEdit}.
+     * @param f tlk file, {@code null} removes the mapped table
+     */
+    public void setTlkFile(File f, Version nwnVersion) throws IOException {
+        mappedTlk = f == null ? null : new TlkReadOnly(f, 1000, nwnVersion);
+        if (tlkedit == null) {
+            lookup.setMainTable(mappedTlk);
+        }
+        setNoValue();
+    }
+
+    /**
+     * Maps a tlk file that is used as user table while no editor is set with
+     * {@link #setUserTlkEdit}.
+     * @param f tlk file, {@code null} removes the mapped table
+     */
+    public void setUserTlkFile(File f, Version nwnVersion) throws IOException {
+        mappedUserTlk = f == null ? null : new TlkReadOnly(f, 1000, nwnVersion);
+        if (usertlkedit == null) {
+            lookup.setUserTable(mappedUserTlk);
+        }
         setNoValue();
     }
 
@@ -13,11 +13,12 @@ import org.jl.nwn.NwnLanguage;
 import org.jl.nwn.tlk.TlkContent;
 import org.jl.nwn.tlk.TlkEntry;
 import org.jl.nwn.tlk.TlkLookup;
+import org.jl.nwn.tlk.TlkSource;
 import org.jl.swing.undo.ListMutator;
 import org.jl.swing.undo.RowMutator;
 
 public class TlkModel extends AbstractTableModel
-        implements RowMutator.RowMutable<TlkEntry>, ListMutator.ListMutable<TlkEntry>{
+        implements RowMutator.RowMutable<TlkEntry>, ListMutator.ListMutable<TlkEntry>, TlkSource{
 
     private TlkContent tlkContent;
     private boolean isUserTlk = false;
@@ -179,10 +180,31 @@ public class TlkModel extends AbstractTableModel
         return isUserTlk;
     }
 
+    @Override
     public int size(){
         return tlkContent.size();
     }
 
+    @Override
+    public byte getFlags( int pos ){
+        return tlkContent.getFlags( pos );
+    }
+
+    @Override
+    public String getString( int pos ){
+        return tlkContent.getString( pos );
+    }
+
+    @Override
+    public String getSoundResRef( int pos ){
+        return tlkContent.getSoundResRef( pos );
+    }
+
+    @Override
+    public float getSoundLength( int pos ){
+        return tlkContent.getSoundLength( pos );
+    }
+
     public void setSize(int newSize){
         if (newSize < tlkContent.size()) { // remove
             int[] indexes = new int[size()-newSize];
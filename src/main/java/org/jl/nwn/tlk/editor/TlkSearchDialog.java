@@ -1,23 +1,127 @@
 package org.jl.nwn.tlk.editor;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
 import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
 
+import org.jl.nwn.tlk.TlkTextIndex;
 import org.jl.swing.TableSearchAndReplace;
+import org.jl.swing.undo.Mutator;
 
+/**
+ * Search dialog for tlk tables. Uses a {@link TlkTextIndex} of the table to
+ * skip rows that can not contain a match.
+ */
 class TlkSearchDialog extends TableSearchAndReplace {
+    /** Characters that can appear in the StrRef, sound length and flags columns. */
+    private static final String NUMERIC_CHARS = "0123456789abcdefABCDEFxX.-+* ";
+
     private final TlkEdit edit;
+    private final TlkTextIndex index;
+    /** Sorted view rows that may contain a match, {@code null} if every row must be searched. */
+    private int[] candidates = null;
 
     public TlkSearchDialog( JFrame owner, TlkEdit ed ){
         super(owner, ed.tlkTable);
         //setModal(true);
         this.edit = ed;
+        index = new TlkTextIndex( ed.model, SwingUtilities::invokeLater );
+        ed.model.addTableModelListener( e -> {
+            if ( e.getFirstRow() == TableModelEvent.HEADER_ROW || e.getLastRow() == Integer.MAX_VALUE ){
+                index.rebuild();
+            } else if ( e.getType() == TableModelEvent.INSERT ){
+                index.rowsInserted( e.getFirstRow(), e.getLastRow() );
+            } else if ( e.getType() == TableModelEvent.DELETE ){
+                index.rowsDeleted( e.getFirstRow(), e.getLastRow() );
+            } else {
+                index.rowsUpdated( e.getFirstRow(), e.getLastRow() );
+            }
+        } );
+        index.rebuild();
+    }
+
+    @Override
+    public void init() {
+        super.init();
+        candidates = findCandidates();
+    }
+
+    @Override
+    protected Mutator getMutator() {
+        return edit.mutator;
     }
 
+    /**
+     * Restricts replacing to the rows that may contain a match.
+     */
     @Override
-    public void replaceAll() {
-        edit.mutator.beginUpdate();
-        super.replaceAll();
-        edit.mutator.endUpdate();
+    protected int[] replaceAllRows() {
+        final int[] rows = super.replaceAllRows();
+        final int[] viewRows = findCandidates();
+        if ( viewRows == null )
+            return rows;
+        Arrays.sort( rows );
+        int n = 0;
+        for ( final int r : viewRows )
+            if ( Arrays.binarySearch( rows, r ) >= 0 )
+                viewRows[n++] = r;
+        return Arrays.copyOf( viewRows, n );
+    }
+
+    /**
+     * Skips to the row before the next candidate row ( or the start row ) when
+     * the last cell of a row has been searched.
+     */
+    @Override
+    protected boolean nextCell() {
+        if ( candidates != null && col == table.getColumnCount() - 1 ){
+            int next = Arrays.binarySearch( candidates, row + 1 );
+            next = next < 0 ? -next - 1 : next;
+            int target = next < candidates.length ? candidates[next] : Integer.MAX_VALUE;
+            if ( startRow > row )
+                target = Math.min( target, startRow );
+            if ( target == Integer.MAX_VALUE )
+                row = table.getRowCount() - 1; // wrap around
+            else
+                row = target - 1;
+        }
+        return super.nextCell();
+    }
+
+    private int[] findCandidates() {
+        final Pattern p = newPattern();
+        if ( p == null )
+            return null;
+        // the index only covers strings and resrefs, the other columns
+        // can only match if all literals look like numbers
+        final List<String> literals = TlkTextIndex.requiredLiterals( p );
+        if ( literals == null || literals.stream().allMatch( TlkSearchDialog::isNumeric ) )
+            return null;
+        final int[] rows = index.candidates( p );
+        if ( rows == null )
+            return null;
+        int n = 0;
+        for ( final int r : rows ){
+            if ( r < table.getModel().getRowCount() ){
+                final int v = table.convertRowIndexToView( r );
+                if ( v != -1 )
+                    rows[n++] = v;
+            }
+        }
+        final int[] viewRows = Arrays.copyOf( rows, n );
+        Arrays.sort( viewRows );
+        return viewRows;
+    }
+
+    private static boolean isNumeric( String s ) {
+        for ( int i = 0; i < s.length(); i++ )
+            if ( NUMERIC_CHARS.indexOf( s.charAt( i ) ) == -1 )
+                return false;
+        return true;
     }
 
     @Override
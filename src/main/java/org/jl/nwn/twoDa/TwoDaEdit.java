@@ -72,6 +72,7 @@ import org.jl.swing.TableSearchAndReplace;
 import org.jl.swing.UIDefaultsX;
 import org.jl.swing.table.TableMutator;
 import org.jl.swing.undo.MappedListSelectionModel;
+import org.jl.swing.undo.Mutator;
 import org.jl.swing.undo.MyUndoManager;
 import org.jl.swing.undo.RowMutator;
 
@@ -761,10 +762,8 @@ public class TwoDaEdit extends SimpleFileEditorPanel {
                 searchAndReplace = new TableSearchAndReplace((JFrame) SwingUtilities.getWindowAncestor(table), table) {
 
                     @Override
-                    public void replaceAll() {
-                        mutator.beginUpdate();
-                        super.replaceAll();
-                        mutator.endUpdate();
+                    protected Mutator getMutator() {
+                        return mutator;
                     }
                 };
                 title = searchAndReplace.getTitle() + " - ";
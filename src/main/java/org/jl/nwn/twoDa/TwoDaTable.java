@@ -10,10 +10,13 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import org.jl.nwn.resource.ByteBufferInputStream;
+
 public class TwoDaTable {
     protected int[] columnWidth; // column width
     protected String[] columnHeaders;
@@ -110,6 +113,14 @@ public class TwoDaTable {
         updateColumnWidth();
     }
 
+    /**
+     * Reads a table from the remaining bytes of a buffer, e.g. one returned
+     * by {@link org.jl.nwn.resource.NwnRepository#getResourceBuffer}.
+     */
+    public TwoDaTable(ByteBuffer bb) throws IOException {
+        this(new ByteBufferInputStream(bb));
+    }
+
     public TwoDaTable(File daFile) throws IOException {
         this(new FileInputStream(daFile));
         this.file = daFile;
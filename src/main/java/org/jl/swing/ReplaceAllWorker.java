@@ -0,0 +1,125 @@
+package org.jl.swing;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.swing.SwingWorker;
+
+import org.jl.swing.undo.Mutator;
+import org.jl.text.ReplaceAll;
+
+/**
+ * Runs a {@link ReplaceAll} over the text cells of a model without blocking
+ * the event dispatch thread. Cells are identified by an index, a
+ * {@link Cells} object maps indices to the cells of a model.
+ * <p>
+ * The texts of all cells are copied on the event dispatch thread when the
+ * worker is created, so the model is never accessed by other threads. The
+ * copy is searched in the background, the worker progress is the percentage
+ * of scanned cells. When the search is complete the new values are stored on
+ * the event dispatch thread as a single compound edit of the mutator. Cells
+ * whose value was changed by someone else in the meantime are skipped.
+ * Nothing is changed if the worker is cancelled.
+ */
+public class ReplaceAllWorker extends SwingWorker<List<ReplaceAll.Replacement>, Void> {
+
+    private final Cells cells;
+    private final String[] texts;
+    private final ReplaceAll replaceAll;
+    private final Mutator mutator;
+
+    /** Text cells of a model, accessed only on the event dispatch thread. */
+    public interface Cells {
+        /** Returns number of cells. */
+        int size();
+
+        /**
+         * Returns the text of a cell.
+         * @return text of the cell or {@code null} if the cell cannot be changed
+         */
+        String getText( int cell );
+
+        /**
+         * Stores the new text of a cell.
+         * @throws IllegalArgumentException if the text is not a valid value for
+         *         the cell, the cell is left unchanged
+         */
+        void setText( int cell, String text );
+    }
+
+    /**
+     * Must be called on the event dispatch thread, copies the texts of all
+     * cells.
+     *
+     * @param cells cells to search
+     * @param pattern pattern to search for
+     * @param replacement replacement string, as used by {@link Matcher#replaceAll}
+     * @param mutator mutator that records the changes, may be {@code null}
+     */
+    public ReplaceAllWorker( Cells cells, Pattern pattern, String replacement, Mutator mutator ){
+        this.cells = cells;
+        this.replaceAll = new ReplaceAll( pattern, replacement );
+        this.mutator = mutator;
+        texts = new String[cells.size()];
+        for ( int i = 0; i < texts.length; i++ )
+            texts[i] = cells.getText( i );
+    }
+
+    /**
+     * Called on the event dispatch thread when the worker has finished.
+     * @param replaced number of changed cells, -1 if the worker was cancelled
+     *        or failed
+     */
+    protected void finished( int replaced ){
+    }
+
+    @Override
+    protected List<ReplaceAll.Replacement> doInBackground() throws Exception {
+        return replaceAll.find( texts, p -> setProgress( p ) );
+    }
+
+    @Override
+    protected void done(){
+        replaceAll.cancel();
+        int replaced = -1;
+        try {
+            replaced = apply( get() );
+        } catch ( CancellationException ce ){
+            // nothing changed
+        } catch ( InterruptedException ie ){
+            Thread.currentThread().interrupt();
+        } catch ( ExecutionException ee ){
+            ee.getCause().printStackTrace();
+        } finally {
+            finished( replaced );
+        }
+    }
+
+    private int apply( List<ReplaceAll.Replacement> replacements ){
+        int replaced = 0;
+        boolean compound = false;
+        try {
+            for ( final ReplaceAll.Replacement r : replacements ){
+                if ( !r.oldText.equals( cells.getText( r.index ) ) )
+                    continue;
+                if ( !compound && mutator != null ){
+                    mutator.beginUpdate();
+                    compound = true;
+                }
+                try {
+                    cells.setText( r.index, r.newText );
+                    replaced++;
+                } catch ( IllegalArgumentException iae ){
+                    // not a valid value for this cell
+                }
+            }
+        } finally {
+            if ( compound )
+                mutator.endUpdate();
+        }
+        return replaced;
+    }
+}
@@ -2,10 +2,12 @@ package org.jl.swing;
 
 import java.awt.Color;
 import java.text.MessageFormat;
+import java.util.regex.Pattern;
 
 import javax.swing.CellEditor;
 import javax.swing.JFrame;
 import javax.swing.JTable;
+import javax.swing.ProgressMonitor;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
@@ -16,6 +18,7 @@ import javax.swing.table.TableColumn;
 import javax.swing.text.JTextComponent;
 
 import org.jl.swing.table.TextCellEditor;
+import org.jl.swing.undo.Mutator;
 
 public class TableSearchAndReplace extends SearchAndReplaceDialog {
 
@@ -25,6 +28,9 @@ public class TableSearchAndReplace extends SearchAndReplaceDialog {
 
     protected JTable table;
 
+    /** Running {@link #replaceAll} worker, {@code null} if none. */
+    private ReplaceAllWorker worker = null;
+
     public TableSearchAndReplace( JFrame owner, JTable aTable ){
         super(owner);
         this.table = aTable;
@@ -189,36 +195,93 @@ public class TableSearchAndReplace extends SearchAndReplaceDialog {
         return match;
     }
 
+    /**
+     * Returns the mutator that records the changes done by {@link #replaceAll}
+     * as one compound edit, {@code null} if there is none.
+     */
+    protected Mutator getMutator(){
+        return null;
+    }
+
+    /**
+     * Returns the cells in which {@link #replaceAll} replaces matches : all
+     * cells of the rows returned by {@link #replaceAllRows}.
+     */
+    protected ReplaceAllWorker.Cells replaceAllCells(){
+        final int[] rows = replaceAllRows();
+        final int[] modelRows = new int[rows.length];
+        for ( int i = 0; i < rows.length; i++ )
+            modelRows[i] = table.convertRowIndexToModel( rows[i] );
+        final int columns = table.getColumnCount();
+        final int[] modelColumns = new int[columns];
+        for ( int i = 0; i < columns; i++ )
+            modelColumns[i] = table.convertColumnIndexToModel( i );
+        return new ReplaceAllWorker.Cells(){
+            @Override
+            public int size(){
+                return rows.length * columns;
+            }
+            @Override
+            public String getText( int cell ){
+                final int c = cell % columns;
+                final Object o = table.getModel().getValueAt( modelRows[cell / columns], modelColumns[c] );
+                return o == null ? null : modelObject2String( o, rows[cell / columns], c );
+            }
+            @Override
+            public void setText( int cell, String text ){
+                final int r = rows[cell / columns];
+                final int c = cell % columns;
+                table.setValueAt( string2ModelObject( text, r, c ), r, c );
+            }
+        };
+    }
+
+    /**
+     * Returns the view rows in which {@link #replaceAll} replaces matches.
+     */
+    protected int[] replaceAllRows(){
+        if ( rbSearchSelection.isSelected() )
+            return table.getSelectedRows();
+        final int[] rows = new int[table.getRowCount()];
+        for ( int i = 0; i < rows.length; i++ )
+            rows[i] = i;
+        return rows;
+    }
+
+    /**
+     * Replaces all matches in the background, the table is disabled until
+     * the replacement is finished or cancelled.
+     */
     @Override
     public void replaceAll(){
+        if ( worker != null )
+            return;
         if ( table.getCellEditor() != null )
             if (!table.getCellEditor().stopCellEditing())
                 table.getCellEditor().cancelCellEditing();
-        row = 0;
-        int lastRow = Integer.MAX_VALUE-1;
-        if ( rbSearchSelection.isSelected() ){
-            row = table.getSelectedRow();
-            int[] selection = table.getSelectedRows();
-            if ( selection.length == 0 )
-                return;
-            row = selection[0];
-            lastRow = selection[selection.length-1];
-        }
-        col = 0;
-        startRow = row;
-        startCol = col;
-        super.init();
-        int count = 0;
-        do{
-            if ( !rbSearchSelection.isSelected() || table.isRowSelected(row) ){
-                if ( table.getValueAt( row, col ) != null && matcher.find() ){
-                    count++;
-                    String s = matcher.replaceAll( getReplacement() );
-                    table.setValueAt( string2ModelObject(s, row, col),
-                            row, col );
-                }
+        final Pattern p = newPattern();
+        if ( p == null )
+            return;
+        final ProgressMonitor monitor = new ProgressMonitor( table, "Replace All", null, 0, 100 );
+        worker = new ReplaceAllWorker( replaceAllCells(), p, getReplacement(), getMutator() ){
+            @Override
+            protected void finished( int replaced ){
+                worker = null;
+                monitor.close();
+                table.setEnabled( true );
+                statusLabel.setForeground( Color.BLACK );
+                statusLabel.setText( replaced == -1 ? "replace cancelled" : MessageFormat.format( "{0} cells changed", replaced ) );
+            }
+        };
+        worker.addPropertyChangeListener( evt -> {
+            if ( "progress".equals( evt.getPropertyName() ) ){
+                monitor.setProgress( (Integer) evt.getNewValue() );
+                if ( monitor.isCanceled() && worker != null )
+                    worker.cancel( true );
             }
-        } while ( nextCell() && row < lastRow+1 );
+        } );
+        table.setEnabled( false );
+        worker.execute();
         invalidState = true;
     }
 
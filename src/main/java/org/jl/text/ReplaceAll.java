@@ -0,0 +1,127 @@
+package org.jl.text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds all replacements of a pattern in a sequence of strings. The strings
+ * are scanned in chunks on a shared pool of worker threads. Only a snapshot of
+ * the strings is read and nothing is changed, so the search does not depend on
+ * the model the strings come from or on the thread that owns it; the caller
+ * applies the returned replacements.
+ */
+public class ReplaceAll {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                final Thread t = new Thread( r, "ReplaceAll" );
+                t.setDaemon( true );
+                return t;
+            } );
+
+    private final Pattern pattern;
+    private final String replacement;
+    private volatile boolean cancelled = false;
+
+    /** Replacement of the string at an index of the searched sequence. */
+    public static final class Replacement {
+        public final int index;
+        public final String oldText;
+        public final String newText;
+
+        Replacement( int index, String oldText, String newText ){
+            this.index = index;
+            this.oldText = oldText;
+            this.newText = newText;
+        }
+    }
+
+    /**
+     * @param pattern pattern to search for
+     * @param replacement replacement string, as used by {@link Matcher#replaceAll}
+     */
+    public ReplaceAll( Pattern pattern, String replacement ){
+        this.pattern = pattern;
+        this.replacement = replacement;
+    }
+
+    /**
+     * Stops a running {@link #find}, which then throws a
+     * {@link CancellationException}, as do all later calls.
+     */
+    public void cancel(){
+        cancelled = true;
+    }
+
+    public boolean isCancelled(){
+        return cancelled;
+    }
+
+    /**
+     * Returns the replacements for all strings that contain a match, in
+     * index order.
+     *
+     * @param texts strings to search, {@code null} elements are skipped
+     * @param progress receives the percentage of scanned strings, may be
+     *        {@code null}
+     * @throws CancellationException if the search was cancelled
+     * @throws InterruptedException if the calling thread was interrupted, the
+     *         search is then cancelled
+     * @throws ExecutionException if scanning failed, e.g. because of an
+     *         invalid group reference in the replacement
+     */
+    public List<Replacement> find( String[] texts, IntConsumer progress )
+            throws InterruptedException, ExecutionException{
+        if ( cancelled )
+            throw new CancellationException();
+        final List<Future<List<Replacement>>> futures = new ArrayList<>();
+        for ( int start = 0; start < texts.length; start += CHUNK_SIZE ){
+            final int from = start;
+            final int to = Math.min( texts.length, start + CHUNK_SIZE );
+            futures.add( POOL.submit( () -> scan( texts, from, to ) ) );
+        }
+        final List<Replacement> replacements = new ArrayList<>();
+        boolean complete = false;
+        try {
+            for ( int i = 0; i < futures.size(); i++ ){
+                replacements.addAll( futures.get( i ).get() );
+                if ( cancelled )
+                    throw new CancellationException();
+                if ( progress != null )
+                    progress.accept( (int) ( 100L * Math.min( texts.length, (i + 1) * CHUNK_SIZE ) / texts.length ) );
+            }
+            complete = true;
+        } finally {
+            if ( !complete ){
+                cancelled = true;
+                for ( final Future<List<Replacement>> f : futures )
+                    f.cancel( false );
+            }
+        }
+        return replacements;
+    }
+
+    private List<Replacement> scan( String[] texts, int from, int to ){
+        final List<Replacement> found = new ArrayList<>();
+        final Matcher matcher = pattern.matcher( "" );
+        for ( int i = from; i < to && !cancelled; i++ ){
+            final String text = texts[i];
+            if ( text == null || !matcher.reset( text ).find() )
+                continue;
+            final String replaced = matcher.replaceAll( replacement );
+            if ( !replaced.equals( text ) )
+                found.add( new Replacement( i, text, replaced ) );
+        }
+        return found;
+    }
+}